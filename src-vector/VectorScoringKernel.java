@@ -0,0 +1,59 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+//ScoringKernel on the Vector API, needs javac/java --add-modules jdk.incubator.vector.
+//tfs are widened from int lanes to double lanes, per document values are gathered by doc ordinal
+//and the accumulators are scattered back, which is safe since ordinals are distinct within a term.
+//the tail of a block that does not fill a vector goes through the scalar loop, and so do whole blocks
+//shorter than MIN_POSTINGS, which are too short to pay for setting up the gathers.
+public class VectorScoringKernel extends ScoringKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    //int lanes of half the width, so one int vector widens to exactly one double vector
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    //blocks of fewer postings are scored by the scalar kernel, -Dirsystem.vector.minPostings overrides it.
+    //two vectors: below that the gathers and the scalar tail cost about as much as the scalar loop
+    static final int MIN_POSTINGS = Integer.getInteger("irsystem.vector.minPostings", 2 * SPECIES.length());
+
+    @Override
+    public void bm25(int[] docs, int[] tfs, int from, int to, double[] lengthNorm, double k, double weight, double[] acc) {
+        if (to - from < MIN_POSTINGS) {
+            super.bm25(docs, tfs, from, to, lengthNorm, k, weight, acc);
+            return;
+        }
+        int lanes = SPECIES.length();
+        int p = from;
+        for (; p + lanes <= to; p += lanes) {
+            DoubleVector tf = (DoubleVector) IntVector.fromArray(INT_SPECIES, tfs, p).convertShape(VectorOperators.I2D, SPECIES, 0);
+            DoubleVector norm = DoubleVector.fromArray(SPECIES, lengthNorm, 0, docs, p);
+            DoubleVector sum = DoubleVector.fromArray(SPECIES, acc, 0, docs, p);
+            //same operation order as the scalar kernel so scores are bit identical
+            sum.add(tf.mul(1.0 + k).div(tf.add(norm)).mul(weight)).intoArray(acc, 0, docs, p);
+        }
+        super.bm25(docs, tfs, p, to, lengthNorm, k, weight, acc);
+    }
+
+    @Override
+    public void tfIdf(int[] docs, int[] tfs, int from, int to, double idf, double weight, double[] acc) {
+        if (to - from < MIN_POSTINGS) {
+            super.tfIdf(docs, tfs, from, to, idf, weight, acc);
+            return;
+        }
+        int lanes = SPECIES.length();
+        int p = from;
+        for (; p + lanes <= to; p += lanes) {
+            DoubleVector tf = (DoubleVector) IntVector.fromArray(INT_SPECIES, tfs, p).convertShape(VectorOperators.I2D, SPECIES, 0);
+            DoubleVector sum = DoubleVector.fromArray(SPECIES, acc, 0, docs, p);
+            sum.add(tf.lanewise(VectorOperators.LOG10).add(1.0).mul(idf).mul(weight)).intoArray(acc, 0, docs, p);
+        }
+        super.tfIdf(docs, tfs, p, to, idf, weight, acc);
+    }
+
+    @Override
+    public String getName() {
+        return "vector/" + SPECIES.length() + "x64";
+    }
+}
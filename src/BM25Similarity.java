@@ -0,0 +1,34 @@
+//Okapi bm25 with parameters k and b
+public class BM25Similarity extends Similarity {
+    private final double k;
+    private final double b;
+
+    public BM25Similarity(double k, double b) {
+        this.k = k;
+        this.b = b;
+    }
+
+    public double getK() {
+        return k;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    @Override
+    public double[] docStats(IndexSnapshot index) {
+        return index.lengthNorm(k, b);
+    }
+
+    @Override
+    public double queryWeight(int N, int df, int qtf, int maxQtf) {
+        return Math.log(1 + (0.5 + N - df) / (0.5 + df) );
+    }
+
+    @Override
+    public void score(ScoringKernel kernel, int[] docs, int[] tfs, int from, int to,
+                      int N, int df, double queryWeight, double[] docStats, double[] acc) {
+        kernel.bm25(docs, tfs, from, to, docStats, k, queryWeight, acc);
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+//two stage ranking. The first stage adds up 8 bit bm25 impacts (see IndexSnapshot.impacts) over the
+//postings of the query terms and keeps the best candidates; only those reach the second stage, which
+//reads the terms of each candidate from the ForwardIndex and scores it with exact bm25 plus features too
+//costly to compute for every matching document:
+//  cosine     - cosine similarity of tf-idf vectors, from the stored document norms
+//  proximity  - how close together the query terms occur in the tweet
+//  phrase     - the query terms occur in the tweet in query order, next to each other
+//  recency    - how shortly before the query the tweet was posted, from the tweet IDs
+public class CascadeRanker {
+    //feature weights, set by hand against the scale of bm25 scores
+    private static final double COSINE_WEIGHT = 2.0;
+    private static final double PROXIMITY_WEIGHT = 1.0;
+    private static final double PHRASE_WEIGHT = 2.0;
+    private static final double RECENCY_WEIGHT = 1.0;
+    //age at which the recency of a tweet has halved, in milliseconds
+    private static final double RECENCY_HALF_LIFE = 24 * 3600 * 1000.0;
+
+    private final BM25Similarity bm25;
+    private final Similarity cosine = new CosineSimilarity();
+    //number of candidates the first stage passes on
+    private final int candidates;
+    //number of results the second stage keeps
+    private final int results;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong stage1Nanos = new AtomicLong();
+    private final AtomicLong stage2Nanos = new AtomicLong();
+    private final AtomicLong candidatesScored = new AtomicLong();
+
+    public CascadeRanker(BM25Similarity bm25, int candidates, int results) {
+        this.bm25 = bm25;
+        this.candidates = candidates;
+        this.results = results;
+    }
+
+    //retrive the top K (at most results) documents for query q. queryTweetTime is the ID of the latest
+    //tweet when the query was issued, 0 if unknown, then recency is left out
+    public List<Pair<Document, Double>> topK(IndexSnapshot index, Query q, int K, long queryTweetTime) {
+        return topK(index, q, K, queryTweetTime, true);
+    }
+
+    //same as topK, record tells whether the query counts in the stage figures of report. The first pass of a
+    //refined query is left out, so they describe the queries as answered
+    public List<Pair<Document, Double>> topK(IndexSnapshot index, Query q, int K, long queryTweetTime, boolean record) {
+        if (q.isFilterOnly()) {
+            return ScoringEngine.newestAccepted(index, index.getFilters().accept(q.getFilters(), index.size()), Math.min(K, results));
+        }
+        long start = System.nanoTime();
+        int[] candidateDocs = firstStage(index, q);
+        long middle = System.nanoTime();
+        List<Pair<Document, Double>> ret = secondStage(index, q, candidateDocs, Math.min(K, results), queryTweetTime);
+        long end = System.nanoTime();
+
+        if (record) {
+            queries.incrementAndGet();
+            stage1Nanos.addAndGet(middle - start);
+            stage2Nanos.addAndGet(end - middle);
+            candidatesScored.addAndGet(candidateDocs.length);
+        }
+        return ret;
+    }
+
+    //ordinals of the documents with the highest summed impacts, at most candidates of them
+    private int[] firstStage(IndexSnapshot index, Query q) {
+        int N = index.size();
+        TermDictionary dictionary = index.getDictionary();
+        int[] docs = index.getPostingDocs();
+        byte[] impacts = index.impacts(bm25.getK(), bm25.getB());
+        long[] accept = index.getFilters().accept(q.getFilters(), N);
+        int[] acc = new int[N];
+
+        //a term occurring twice in query is scored twice, as in ScoringEngine
+        for (String term : q.getTerms()) {
+            int id = dictionary.lookup(term);
+            if (id < 0) {
+                continue;
+            }
+            for (int p = dictionary.postingsStart(id); p < dictionary.postingsEnd(id); p++) {
+                //documents rejected by the filters of the query never become candidates
+                if (accept == null || FilterIndex.accepts(accept, docs[p])) {
+                    acc[docs[p]] += impacts[p] & 0xFF;
+                }
+            }
+        }
+
+        //score in the high half, the low half makes lower ordinals win ties
+        int touched = 0;
+        long[] keys = new long[N];
+        for (int d = 0; d < N; d++) {
+            if (acc[d] > 0) {
+                keys[touched++] = ((long) acc[d] << 32) | (Integer.MAX_VALUE - d);
+            }
+        }
+        Arrays.sort(keys, 0, touched);
+        int[] ret = new int[Math.min(candidates, touched)];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Integer.MAX_VALUE - (int) keys[touched - 1 - i];
+        }
+        return ret;
+    }
+
+    private List<Pair<Document, Double>> secondStage(IndexSnapshot index, Query q, int[] candidateDocs, int K, long queryTweetTime) {
+        int N = index.size();
+        TermDictionary dictionary = index.getDictionary();
+        ForwardIndex forward = index.getForwardIndex();
+        int[] terms = forward.getTerms();
+        double[] lengthNorm = bm25.docStats(index);
+        double[] normes = index.getNormes();
+        double k = bm25.getK();
+
+        List<String> query = q.getTerms();
+        Map<String, Integer> freqMap = ScoringEngine.getFreqMap(query);
+        int maxFreq = 0;
+        for (String term : query) {
+            maxFreq = Math.max(maxFreq, freqMap.get(term));
+        }
+        //dictionary IDs and query side weights of the known terms, in query order with repeats
+        int[] known = new int[query.size()];
+        List<double[]> weights = new ArrayList<>();
+        double queryNorm = 0;
+        for (String term : query) {
+            int id = dictionary.lookup(term);
+            if (id < 0) {
+                continue;
+            }
+            int df = dictionary.docFreq(id);
+            double w_t_q = cosine.queryWeight(N, df, freqMap.get(term), maxFreq);
+            queryNorm += w_t_q * w_t_q;
+            known[weights.size()] = id;
+            weights.add(new double[] {bm25.queryWeight(N, df, freqMap.get(term), maxFreq), Math.log10((N + 0.0) / df), w_t_q});
+        }
+        queryNorm = Math.sqrt(queryNorm);
+        known = Arrays.copyOf(known, weights.size());
+        //sorted distinct known IDs, tf[i] counts the occurrences of distinct[i] in the candidate
+        int[] distinct = Arrays.stream(known).sorted().distinct().toArray();
+        int[] tf = new int[distinct.length];
+        //IDs of the terms of the query text, -1 for a term not in the dictionary
+        List<String> original = q.getOriginalTerms();
+        int[] originalIds = new int[original.size()];
+        for (int i = 0; i < originalIds.length; i++) {
+            originalIds[i] = dictionary.lookup(original.get(i));
+        }
+
+        PriorityQueue<Pair<Document, Double>> pq = new PriorityQueue<>();
+        for (int d : candidateDocs) {
+            Document doc = index.getDocument(d);
+            int from = forward.start(d);
+            int to = forward.end(d);
+            Arrays.fill(tf, 0);
+            for (int p = from; p < to; p++) {
+                int i = Arrays.binarySearch(distinct, terms[p]);
+                if (i >= 0) {
+                    tf[i]++;
+                }
+            }
+
+            double bm25Score = 0;
+            double cosineScore = 0;
+            for (int i = 0; i < known.length; i++) {
+                int f = tf[Arrays.binarySearch(distinct, known[i])];
+                if (f > 0) {
+                    double[] w = weights.get(i);
+                    bm25Score += ((1.0 + k) * f) / (0.0 + f + lengthNorm[d]) * w[0];
+                    cosineScore += IRSystem.tf_idf(f, w[1]) * w[2];
+                }
+            }
+            cosineScore = cosine.finish(cosineScore, normes[d], queryNorm);
+
+            double score = bm25Score + COSINE_WEIGHT * cosineScore
+                    + PROXIMITY_WEIGHT * proximity(terms, from, to, originalIds)
+                    + PHRASE_WEIGHT * (containsPhrase(terms, from, to, originalIds) ? 1 : 0)
+                    + RECENCY_WEIGHT * recency(doc.getID(), queryTweetTime);
+            pq.add(new Pair<Document, Double>(doc, score));
+        }
+
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+        int size = pq.size();
+        for (int i = 0; i < Math.min(K, size); i++) {
+            ret.add(pq.poll());
+        }
+        return ret;
+    }
+
+    //(m - 1) / (span - 1) for the shortest span of terms[from, to) containing all m distinct query terms
+    //found in the document: 1 when they are next to each other, 0 when fewer than two are found
+    static double proximity(int[] terms, int from, int to, int[] query) {
+        //distinct query terms in query order, a query is a handful of terms so they are searched linearly
+        int[] distinct = Arrays.stream(query).distinct().toArray();
+        int[] seen = new int[distinct.length];
+        int matched = 0;
+        for (int p = from; p < to; p++) {
+            int t = indexOf(distinct, terms[p]);
+            if (t >= 0 && seen[t]++ == 0) {
+                matched++;
+            }
+        }
+        if (matched < 2) {
+            return 0;
+        }
+
+        //sliding window over the terms, shrunk from the left while it still holds every matched term
+        int[] inWindow = new int[distinct.length];
+        int covered = 0;
+        int span = Integer.MAX_VALUE;
+        int left = from;
+        for (int right = from; right < to; right++) {
+            int t = indexOf(distinct, terms[right]);
+            if (t < 0) {
+                continue;
+            }
+            if (inWindow[t]++ == 0) {
+                covered++;
+            }
+            while (covered == matched) {
+                int l = indexOf(distinct, terms[left]);
+                if (l >= 0) {
+                    span = Math.min(span, right - left + 1);
+                    if (--inWindow[l] == 0) {
+                        covered--;
+                    }
+                }
+                left++;
+            }
+        }
+        return (matched - 1.0) / (span - 1.0);
+    }
+
+    //the query has at least two terms and they occur in terms[from, to) in the same order, without gaps
+    static boolean containsPhrase(int[] terms, int from, int to, int[] query) {
+        if (query.length < 2) {
+            return false;
+        }
+        for (int p = from; p + query.length <= to; p++) {
+            if (Arrays.equals(terms, p, p + query.length, query, 0, query.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //halves every RECENCY_HALF_LIFE between the document and the query, 0 for documents posted after the
+    //query or when either time is unknown. Tweet IDs carry their creation time in milliseconds above bit 22
+    static double recency(String docID, long queryTweetTime) {
+        if (queryTweetTime <= 0) {
+            return 0;
+        }
+        long id;
+        try {
+            id = Long.parseLong(docID);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        long age = (queryTweetTime >> 22) - (id >> 22);
+        return age < 0 ? 0 : Math.pow(0.5, age / RECENCY_HALF_LIFE);
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public int getResults() {
+        return results;
+    }
+
+    //average time spent in each stage and number of candidates reranked per query
+    public void report(Metrics metrics) {
+        long n = Math.max(1, queries.get());
+        metrics.put("cascade.candidates", candidates);
+        metrics.put("cascade.results", results);
+        metrics.put("cascade.stage1.avg.ms", String.format("%.3f", stage1Nanos.get() / 1e6 / n));
+        metrics.put("cascade.stage2.avg.ms", String.format("%.3f", stage2Nanos.get() / 1e6 / n));
+        metrics.put("cascade.reranked.avg", candidatesScored.get() / n);
+    }
+}
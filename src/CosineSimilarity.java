@@ -0,0 +1,29 @@
+//cosine similarity of tf-idf vectors, with augmented term frequency on the query side
+public class CosineSimilarity extends Similarity {
+
+    @Override
+    public double[] docStats(IndexSnapshot index) {
+        return index.getNormes();
+    }
+
+    @Override
+    public double queryWeight(int N, int df, int qtf, int maxQtf) {
+        //augmented query term frequency times idf
+        return (0.5 + 0.5 * qtf / maxQtf) * idf(N, df);
+    }
+
+    @Override
+    public void score(ScoringKernel kernel, int[] docs, int[] tfs, int from, int to,
+                      int N, int df, double queryWeight, double[] docStats, double[] acc) {
+        kernel.tfIdf(docs, tfs, from, to, idf(N, df), queryWeight, acc);
+    }
+
+    @Override
+    public double finish(double score, double docStat, double queryNorm) {
+        return score / docStat / queryNorm;
+    }
+
+    private static double idf(int N, int df) {
+        return Math.log10((N + 0.0) / (df + 0.0));
+    }
+}
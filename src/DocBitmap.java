@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//set of document ordinals compressed in the style of Roaring bitmaps. Ordinals are split in chunks of
+//65536 by their high 16 bits; a chunk holding at most ARRAY_MAX ordinals stores their low bits as a
+//sorted char array, a fuller chunk as a 65536 bit bitset, so a set costs at most about 2 bytes per
+//member, and 8 KB per chunk when dense. Ordinals must be added in increasing order.
+public class DocBitmap {
+    private static final int CHUNK_BITS = 16;
+    //above this many members a bitset is smaller than the char array
+    private static final int ARRAY_MAX = 4096;
+
+    //high 16 bits of the ordinals of each chunk, increasing
+    private final List<Integer> keys = new ArrayList<>();
+    private final List<Container> containers = new ArrayList<>();
+    private int cardinality;
+
+    //ordinal must be greater than every ordinal added before
+    public void add(int ordinal) {
+        int key = ordinal >>> CHUNK_BITS;
+        int last = keys.size() - 1;
+        if (last < 0 || keys.get(last) != key) {
+            keys.add(key);
+            containers.add(new ArrayContainer());
+            last++;
+        }
+        Container c = containers.get(last);
+        if (c.cardinality() == ARRAY_MAX && c instanceof ArrayContainer) {
+            c = ((ArrayContainer) c).toBitset();
+            containers.set(last, c);
+        }
+        c.add((char) ordinal);
+        cardinality++;
+    }
+
+    public boolean contains(int ordinal) {
+        int i = chunk(ordinal >>> CHUNK_BITS);
+        return i >= 0 && containers.get(i).contains((char) ordinal);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    //set the bits of the members in bits, a bitset of document ordinals
+    public void orInto(long[] bits) {
+        for (int i = 0; i < keys.size(); i++) {
+            containers.get(i).orInto(bits, keys.get(i) << CHUNK_BITS);
+        }
+    }
+
+    //release the spare capacity of the last container once every ordinal is added
+    public void trim() {
+        for (Container c : containers) {
+            c.trim();
+        }
+    }
+
+    public long sizeInBytes() {
+        long ret = 16 + 2 * (24 + 16 + 4L * keys.size());
+        for (Container c : containers) {
+            ret += 16 + c.sizeInBytes();
+        }
+        return ret;
+    }
+
+    private int chunk(int key) {
+        int lo = 0;
+        int hi = keys.size() - 1;
+        while (lo <= hi) {
+            int middle = (lo + hi) >>> 1;
+            int k = keys.get(middle);
+            if (k < key) {
+                lo = middle + 1;
+            } else if (k > key) {
+                hi = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private abstract static class Container {
+        abstract void add(char low);
+
+        abstract boolean contains(char low);
+
+        abstract int cardinality();
+
+        abstract void orInto(long[] bits, int base);
+
+        void trim() {
+        }
+
+        abstract long sizeInBytes();
+    }
+
+    //sorted low 16 bits of the members of a sparse chunk
+    private static class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        void add(char low) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            }
+            values[size++] = low;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        void orInto(long[] bits, int base) {
+            for (int i = 0; i < size; i++) {
+                int ordinal = base + values[i];
+                bits[ordinal >>> 6] |= 1L << ordinal;
+            }
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + ((16 + 2L * values.length + 7) & ~7L);
+        }
+
+        BitsetContainer toBitset() {
+            BitsetContainer ret = new BitsetContainer();
+            for (int i = 0; i < size; i++) {
+                ret.add(values[i]);
+            }
+            return ret;
+        }
+    }
+
+    //bitset of the low 16 bits of the members of a dense chunk
+    private static class BitsetContainer extends Container {
+        private final long[] words = new long[1 << (CHUNK_BITS - 6)];
+        private int size;
+
+        @Override
+        void add(char low) {
+            words[low >>> 6] |= 1L << low;
+            size++;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        void orInto(long[] bits, int base) {
+            //chunks start on a multiple of 65536, so words line up
+            int offset = base >>> 6;
+            int n = Math.min(words.length, bits.length - offset);
+            for (int i = 0; i < n; i++) {
+                bits[offset + i] |= words[i];
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 16 + 8L * words.length;
+        }
+    }
+}
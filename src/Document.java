@@ -1,8 +1,5 @@
 import java.util.*;
 public class Document {
-    //singleton tokenizer, we only keep one tokenizer instance in memory.
-    private static Tokenizer tkn = new Tokenizer("files/StopWords.txt");
-
     //document ID
     private String docID;
     //document's raw text
@@ -11,16 +8,19 @@ public class Document {
     private List<String> tokenList;
     //token frequency map
     private Map<String, Integer> freqMap;
-    //tf-idf vector
-    private List<Double> tf_idf;
+    //number of tokens, kept after the token list is released
+    private int length;
     //norme of tf-idf vector
     private double norme;
+    //near duplicates collapsed into this document at index time, null if none
+    private List<Document> duplicates;
 
-    public Document(String id, String text) {
+    //tkn is the tokenizer of the index the document belongs to
+    public Document(String id, String text, Tokenizer tkn) {
         docID = id;
         rawText = text;
         tokenList = tkn.getTokens(text);
-        tf_idf = new ArrayList<>();
+        length = tokenList.size();
         norme = 0;
 
         freqMap = new HashMap<>();
@@ -46,20 +46,31 @@ public class Document {
     }
 
     public int length() {
-        return tokenList.size();
+        return length;
     }
 
+    //release the token list and frequency map once the document is indexed,
+    //only the ID, raw text, length and norm are needed to answer queries
+    public void compact() {
+        tokenList = null;
+        freqMap = null;
+    }
 
-    //calcuate the norm of a vertorized document
-    public void calcNorme(Map<String, Integer> documentFrequency, int N) {
-        for (String token : tokenList) {
-            tf_idf.add((1 + Math.log10(0.0 + freqMap.get(token))) * Math.log10((0.0 + N) / (0.0 + documentFrequency.get(token))));
+    public void addDuplicate(Document doc) {
+        if (duplicates == null) {
+            duplicates = new ArrayList<>();
         }
-        double temp = 0;
-        for (double d : tf_idf) {
-            temp += d * d;
-        }
-        norme = Math.sqrt(temp);
+        duplicates.add(doc);
+    }
+
+    public List<Document> getDuplicates() {
+        return duplicates == null ? Collections.emptyList() : duplicates;
+    }
+
+
+    //the norm of the tf-idf vector is computed from the postings once document frequencies are known
+    public void setNorme(double norme) {
+        this.norme = norme;
     }
 
     public double getNorme() {
@@ -68,7 +79,7 @@ public class Document {
 
     @Override
     public String toString() {
-        return "Doc# " + getID() + ": " + Arrays.toString(tokenList.toArray());
+        return "Doc# " + getID() + ": " + (tokenList == null ? rawText : Arrays.toString(tokenList.toArray()));
     }
 
 }
@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//finds near duplicate tweets (retweets, copies with an extra link or emoticon) with 64 bit SimHash.
+//two documents are near duplicates when their signatures differ in at most MAX_DISTANCE bits.
+//the signature is cut in MAX_DISTANCE + 1 bands of equal width, by the pigeonhole principle two signatures
+//within MAX_DISTANCE bits agree on at least one band, so only documents sharing a band are compared.
+public class DuplicateDetector {
+    private static final int MAX_DISTANCE = 3;
+    private static final int BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = 64 / BANDS;
+
+    //band key -> ordinals of the cluster representatives having that band
+    private Map<Long, List<Integer>> bands = new HashMap<>();
+    //signature of each representative by ordinal
+    private long[] signatures = new long[1024];
+
+    //documents with fewer distinct tokens than this are never collapsed, a tweet of a word or two says too
+    //little to tell a copy from another tweet on the same topic
+    public static final int MIN_TOKENS = 3;
+
+    //the distinct tokens of the document a signature is computed from. The retweet header "RT @user:"
+    //is left out so a retweet has the content of the original tweet.
+    public static Set<String> content(Document doc) {
+        List<String> tokens = doc.getTokenList();
+        int from = 0;
+        if (tokens.size() > 1 && tokens.get(0).equals("rt")) {
+            //skip the token of the retweeted user as well
+            from = doc.getRawText().regionMatches(true, 0, "RT @", 0, 4) ? 2 : 1;
+        }
+        return new HashSet<>(tokens.subList(from, tokens.size()));
+    }
+
+    //SimHash of the content of a document. Every token votes once, so a word repeated in a tweet
+    //does not outweigh the rest of it.
+    public static long signature(Set<String> content) {
+        int[] v = new int[64];
+        for (String token : content) {
+            long h = hash(token);
+            for (int i = 0; i < 64; i++) {
+                v[i] += ((h >>> i) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long ret = 0;
+        for (int i = 0; i < 64; i++) {
+            if (v[i] > 0) {
+                ret |= 1L << i;
+            }
+        }
+        return ret;
+    }
+
+    //return the ordinal of a representative near signature, or -1 if there is none
+    public int find(long signature) {
+        for (int band = 0; band < BANDS; band++) {
+            List<Integer> candidates = bands.get(bandKey(signature, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (int ordinal : candidates) {
+                if (Long.bitCount(signatures[ordinal] ^ signature) <= MAX_DISTANCE) {
+                    return ordinal;
+                }
+            }
+        }
+        return -1;
+    }
+
+    //register a new cluster representative
+    public void add(long signature, int ordinal) {
+        if (ordinal >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(signatures.length * 2, ordinal + 1));
+        }
+        signatures[ordinal] = signature;
+        for (int band = 0; band < BANDS; band++) {
+            bands.computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>()).add(ordinal);
+        }
+    }
+
+    private static long bandKey(long signature, int band) {
+        long mask = (1L << BAND_BITS) - 1;
+        return ((long) band << BAND_BITS) | ((signature >>> (band * BAND_BITS)) & mask);
+    }
+
+    //spread String.hashCode over 64 bits (murmur3 finalizer)
+    private static long hash(String token) {
+        long h = token.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
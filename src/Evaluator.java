@@ -0,0 +1,143 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//effectiveness of a result file against TREC relevance judgements, one "topic 0 docID relevance" line
+//per judged tweet. Reports mean average precision and precision at 30 over the topics with at least one
+//relevant tweet, the official measures of the TREC 2011 microblog track.
+//usage: Evaluator <documents> <topics> <qrels> [candidates,candidates,..]
+//compares methods 1, 2 and 3, the cascade at each first stage depth, on effectiveness and latency
+public class Evaluator {
+    //topic -> docID -> relevance
+    private Map<Integer, Map<String, Integer>> qrels;
+
+    public Evaluator(String qrelsFile) {
+        qrels = new HashMap<>();
+        try(BufferedReader br = new BufferedReader(new FileReader(qrelsFile))) {
+            for(String line; (line = br.readLine()) != null; ) {
+                String[] content = line.trim().split("\\s+");
+                if (content.length < 4) {
+                    continue;
+                }
+                qrels.computeIfAbsent(Integer.parseInt(content[0]), t -> new HashMap<>()).put(content[2], Integer.parseInt(content[3]));
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isRelevant(int topic, String docID) {
+        return qrels.getOrDefault(topic, Map.of()).getOrDefault(docID, 0) > 0;
+    }
+
+    public int relevantCount(int topic) {
+        int ret = 0;
+        for (int rel : qrels.getOrDefault(topic, Map.of()).values()) {
+            ret += rel > 0 ? 1 : 0;
+        }
+        return ret;
+    }
+
+    //mean of the precision at the rank of every relevant document, unretrieved ones counting 0
+    public double averagePrecision(int topic, List<String> ranking) {
+        int relevant = relevantCount(topic);
+        if (relevant == 0) {
+            return 0;
+        }
+        double sum = 0;
+        int found = 0;
+        for (int i = 0; i < ranking.size(); i++) {
+            if (isRelevant(topic, ranking.get(i))) {
+                found++;
+                sum += (double) found / (i + 1);
+            }
+        }
+        return sum / relevant;
+    }
+
+    public double precision(int topic, List<String> ranking, int n) {
+        int found = 0;
+        for (int i = 0; i < Math.min(n, ranking.size()); i++) {
+            found += isRelevant(topic, ranking.get(i)) ? 1 : 0;
+        }
+        return (double) found / n;
+    }
+
+    //{MAP, P@30} of a result file written by IRSystem.runQuery, in either of its formats
+    public double[] evaluate(String resultFile) {
+        Map<Integer, List<String>> rankings = new LinkedHashMap<>();
+        try(BufferedReader br = new BufferedReader(new FileReader(resultFile))) {
+            for(String line; (line = br.readLine()) != null; ) {
+                String[] content = line.trim().split("\\s+");
+                int topic = Integer.parseInt(content[0].replaceAll("\\D", ""));
+                rankings.computeIfAbsent(topic, t -> new ArrayList<>()).add(content[2]);
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return evaluate(rankings);
+    }
+
+    //{MAP, P@30} of the ranked docIDs of each topic
+    public double[] evaluate(Map<Integer, List<String>> rankings) {
+        double map = 0;
+        double p30 = 0;
+        int topics = 0;
+        for (int topic : qrels.keySet()) {
+            if (relevantCount(topic) == 0) {
+                continue;
+            }
+            List<String> ranking = rankings.getOrDefault(topic, List.of());
+            map += averagePrecision(topic, ranking);
+            p30 += precision(topic, ranking, 30);
+            topics++;
+        }
+        return new double[] {map / Math.max(1, topics), p30 / Math.max(1, topics)};
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] depths = (args.length > 3 ? args[3] : "100,500,1000,2000,5000").split(",");
+        IRSystem ir = new IRSystem(args[0], "files/StopWords.txt");
+        Evaluator evaluator = new Evaluator(args[2]);
+        File results = File.createTempFile("results", ".txt");
+        results.deleteOnExit();
+
+        //warm up the JIT before timing anything
+        for (String method : new String[] {"1", "2", "3"}) {
+            ir.runQuery(args[1], results.getPath(), 1000, true, method, false);
+        }
+
+        System.out.println("method candidates refine    MAP   P@30 query.ms stage1.ms stage2.ms");
+        for (boolean refine : new boolean[] {false, true}) {
+            List<String[]> runs = new ArrayList<>();
+            runs.add(new String[] {"1", "-"});
+            runs.add(new String[] {"2", "-"});
+            for (String depth : depths) {
+                runs.add(new String[] {"3", depth});
+            }
+            for (String[] run : runs) {
+                if (run[0].equals("3")) {
+                    ir.setCascadeDepths(Integer.parseInt(run[1]), 1000);
+                }
+                ir.runQuery(args[1], results.getPath(), 1000, true, run[0], refine);
+                double[] eval = evaluator.evaluate(results.getPath());
+                Metrics metrics = ir.getMetrics();
+                boolean cascade = run[0].equals("3");
+                System.out.printf("%6s %10s %6s %6.4f %6.4f %8s %9s %9s%n", run[0], run[1], refine, eval[0], eval[1],
+                        metrics.get("query.avg.ms"), cascade ? metrics.get("cascade.stage1.avg.ms") : "-",
+                        cascade ? metrics.get("cascade.stage2.avg.ms") : "-");
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//tweet attributes the Tokenizer drops, as DocBitmaps of document ordinals: the hashtags and mentions of
+//each tweet, retweets and tweets with a link. Built while indexing, queries combine them into one
+//bitset of the documents they accept, see Query for the syntax.
+//near duplicates collapsed into an indexed document keep their own attributes, under ordinals following
+//the indexed ones; a cluster is accepted when any of its tweets is, see accept.
+public class FilterIndex {
+    //a # or @ inside a word, as in C#dev or me@example.com, starts no hashtag nor mention
+    private static final Pattern HASHTAG = Pattern.compile("(?<!\\w)#(\\w+)");
+    private static final Pattern MENTION = Pattern.compile("(?<!\\w)@(\\w+)");
+    private static final Pattern RETWEET = Pattern.compile("(^|\\s)RT @", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LINK = Pattern.compile("https?://\\S");
+
+    //lower cased hashtag or mention without its # or @ -> tweets using it
+    private final Map<String, DocBitmap> hashtags = new HashMap<>();
+    private final Map<String, DocBitmap> mentions = new HashMap<>();
+    private final DocBitmap retweets = new DocBitmap();
+    private final DocBitmap links = new DocBitmap();
+    //collapsed duplicates, by order of addition: the ordinal of the document they were collapsed into,
+    //and until finish their text
+    private int[] owners = new int[0];
+    private List<String> duplicateTexts = new ArrayList<>();
+
+    //record the attributes of the document with the given ordinal, ordinals must be increasing
+    public void add(int ordinal, String rawText) {
+        addAll(hashtags, HASHTAG.matcher(rawText), ordinal);
+        addAll(mentions, MENTION.matcher(rawText), ordinal);
+        if (RETWEET.matcher(rawText).find()) {
+            retweets.add(ordinal);
+        }
+        if (LINK.matcher(rawText).find()) {
+            links.add(ordinal);
+        }
+    }
+
+    //record the attributes of a near duplicate collapsed into the document with the given ordinal
+    public void addDuplicate(int owner, String rawText) {
+        if (duplicateTexts.size() == owners.length) {
+            owners = Arrays.copyOf(owners, Math.max(16, owners.length * 2));
+        }
+        owners[duplicateTexts.size()] = owner;
+        duplicateTexts.add(rawText);
+    }
+
+    private static void addAll(Map<String, DocBitmap> index, Matcher m, int ordinal) {
+        while (m.find()) {
+            DocBitmap docs = index.computeIfAbsent(m.group(1).toLowerCase(), t -> new DocBitmap());
+            //a tweet may use the same hashtag twice
+            if (!docs.contains(ordinal)) {
+                docs.add(ordinal);
+            }
+        }
+    }
+
+    //called once every document is added, N is the number of indexed documents
+    public void finish(int N) {
+        //duplicates come after every indexed document, so ordinals stay increasing
+        for (int i = 0; i < duplicateTexts.size(); i++) {
+            add(N + i, duplicateTexts.get(i));
+        }
+        owners = Arrays.copyOf(owners, duplicateTexts.size());
+        duplicateTexts = null;
+        for (DocBitmap docs : hashtags.values()) {
+            docs.trim();
+        }
+        for (DocBitmap docs : mentions.values()) {
+            docs.trim();
+        }
+        retweets.trim();
+        links.trim();
+    }
+
+    //bitset of the ordinals in [0, N) accepted by every filter, null when there are no filters. An indexed
+    //document stands for its cluster of near duplicates, it is accepted when itself or any of them is
+    public long[] accept(List<Query.Filter> filters, int N) {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        int total = N + owners.length;
+        long[] ret = new long[(total + 63) / 64];
+        boolean positive = false;
+        for (Query.Filter f : filters) {
+            positive |= !f.isNegated();
+        }
+        //only exclusions, start from every document
+        if (!positive) {
+            Arrays.fill(ret, -1L);
+            if (total % 64 != 0) {
+                ret[ret.length - 1] = (1L << total) - 1;
+            }
+        }
+
+        //intersect the positive filters first, then remove the negated ones
+        boolean first = true;
+        long[] bits = new long[ret.length];
+        for (boolean negated : new boolean[] {false, true}) {
+            for (Query.Filter f : filters) {
+                if (f.isNegated() != negated) {
+                    continue;
+                }
+                Arrays.fill(bits, 0);
+                DocBitmap docs = bitmap(f);
+                if (docs != null) {
+                    docs.orInto(bits);
+                }
+                for (int i = 0; i < ret.length; i++) {
+                    if (negated) {
+                        ret[i] &= ~bits[i];
+                    } else if (first) {
+                        ret[i] = bits[i];
+                    } else {
+                        ret[i] &= bits[i];
+                    }
+                }
+                first = false;
+            }
+        }
+
+        for (int i = 0; i < owners.length; i++) {
+            if (accepts(ret, N + i)) {
+                ret[owners[i] >>> 6] |= 1L << owners[i];
+            }
+        }
+        if (owners.length == 0) {
+            return ret;
+        }
+        //the duplicates are folded in, drop their ordinals
+        long[] indexed = Arrays.copyOf(ret, (N + 63) / 64);
+        if (N % 64 != 0) {
+            indexed[indexed.length - 1] &= (1L << N) - 1;
+        }
+        return indexed;
+    }
+
+    //whether the tweet with this text passes every filter, for telling apart the tweets of a cluster
+    public static boolean matches(List<Query.Filter> filters, String rawText) {
+        for (Query.Filter f : filters) {
+            boolean found;
+            switch (f.getType()) {
+                case HASHTAG:
+                    found = contains(HASHTAG.matcher(rawText), f.getValue());
+                    break;
+                case MENTION:
+                    found = contains(MENTION.matcher(rawText), f.getValue());
+                    break;
+                case RETWEET:
+                    found = RETWEET.matcher(rawText).find();
+                    break;
+                default:
+                    found = LINK.matcher(rawText).find();
+            }
+            if (found == f.isNegated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(Matcher m, String value) {
+        while (m.find()) {
+            if (m.group(1).toLowerCase().equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean accepts(long[] accept, int ordinal) {
+        return (accept[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    private DocBitmap bitmap(Query.Filter f) {
+        switch (f.getType()) {
+            case HASHTAG:
+                return hashtags.get(f.getValue());
+            case MENTION:
+                return mentions.get(f.getValue());
+            case RETWEET:
+                return retweets;
+            default:
+                return links;
+        }
+    }
+
+    public int hashtagCount() {
+        return hashtags.size();
+    }
+
+    public int mentionCount() {
+        return mentions.size();
+    }
+
+    public long sizeInBytes() {
+        long ret = 16 + 6 * 4 + retweets.sizeInBytes() + links.sizeInBytes() + 16 + 4L * owners.length;
+        for (Map<String, DocBitmap> index : List.of(hashtags, mentions)) {
+            ret += MemoryAccounting.hashMapBytes(index.size());
+            for (Map.Entry<String, DocBitmap> e : index.entrySet()) {
+                ret += MemoryAccounting.stringBytes(e.getKey()) + e.getValue().sizeInBytes();
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.List;
+
+//the terms of every indexed document in token order, as term IDs back to back: document d is
+//[start(d), end(d)) of getTerms(). The counterpart of the postings, for the features that need the
+//positions of terms in a document, such as the proximity and phrase features of CascadeRanker, without
+//tokenizing the document again for every query. Built from the raw text of the documents of a finished
+//snapshot, see IndexSnapshot.getForwardIndex.
+public class ForwardIndex {
+    private final int[] terms;
+    //document d is [offsets[d], offsets[d + 1]) in terms
+    private final int[] offsets;
+
+    public ForwardIndex(IndexSnapshot index) {
+        Tokenizer tokenizer = index.getTokenizer();
+        TermDictionary dictionary = index.getDictionary();
+        int[] terms = new int[1024];
+        offsets = new int[index.size() + 1];
+        int size = 0;
+        for (int d = 0; d < index.size(); d++) {
+            List<String> tokens = tokenizer.getTokens(index.getDocument(d).getRawText());
+            if (size + tokens.size() > terms.length) {
+                terms = Arrays.copyOf(terms, Math.max(terms.length * 2, size + tokens.size()));
+            }
+            for (String token : tokens) {
+                terms[size++] = dictionary.lookup(token);
+            }
+            offsets[d + 1] = size;
+        }
+        this.terms = Arrays.copyOf(terms, size);
+    }
+
+    public int[] getTerms() {
+        return terms;
+    }
+
+    public int start(int ordinal) {
+        return offsets[ordinal];
+    }
+
+    public int end(int ordinal) {
+        return offsets[ordinal + 1];
+    }
+
+    //approximate heap footprint in bytes
+    public long sizeInBytes() {
+        return 16 + MemoryAccounting.intArrayBytes(terms.length) + MemoryAccounting.intArrayBytes(offsets.length);
+    }
+}
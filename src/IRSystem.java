@@ -1,337 +1,276 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
-
-public class IRSystem {
-    private int N = 0; //total number of documents in system
-    private String docFiles; // document path
-    private String stopWordFile; //stop words path
-    private static Tokenizer tokenizer; //singleton tokenizer, we only a single instance of tokenizer in memory
-    private Set<String> vocabulary; //set of vocabulary 
-    private Map<String, Document> documentMap; //associated each document is stored with it's ID
-    private Map<String, Integer> documentFrequency;  //map of document frequency of each term
-    private Map<String, List<Pair<Document, Integer>>> invertedIndex; //as you can see
-    private double averageDocLength;
-
-    public IRSystem(String documents,String stopWord) {
-        this.docFiles = documents;
-        this.stopWordFile = stopWord;
-        tokenizer = new Tokenizer(stopWordFile);
-        vocabulary = new HashSet<>();
-        documentMap = new HashMap<>();
-        documentFrequency = new HashMap<>();
-        invertedIndex = new HashMap<>();
-        averageDocLength = 0;
-
-        analyzeDocuments();
-
-    }
-
-    private void analyzeDocuments() {
-        try(BufferedReader br = new BufferedReader(new FileReader(docFiles))) {
-            for(String line; (line = br.readLine()) != null; ) {
-                N++;
-                String[] content = line.split("\\t");
-                String docID = content[0];
-                String text = content[1];
-
-                //create document object
-                Document doc = new Document(docID, text);
-                //extend vocabulary with current document
-                vocabulary.addAll(doc.getTokenList());
-                //extend inverted index with current document
-                buildInvertedIndex(doc);
-                //add document into doc map
-                documentMap.put(docID, doc);
-                //add document length to average
-                averageDocLength += doc.getTokenList().size();
-            }
-        } catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}  catch (IOException e) {
-			e.printStackTrace();		
-		}
-
-        //The norm of each document is calulated once we built the inverted index
-        for (Document doc : documentMap.values()) {
-            doc.calcNorme(documentFrequency, N);
-        }
-
-        averageDocLength /= documentMap.size();
-        System.out.println("Indexing done, vovabulary size = " + vocabulary.size());
-    }
-
-
-    //take one document and extend inverted index 
-    private void buildInvertedIndex(Document doc) {
-        Map<String, Integer> freqMap = doc.getFreqMap();
-        for (String token : freqMap.keySet()) {
-            //for every element in frequency map, increment it's document frequency by 1
-            documentFrequency.put(token, documentFrequency.getOrDefault(token, 0) + 1);
-
-            //update inverted index
-            //insert a new array list to our hashmap if we don't have an associate list with that token.
-            if (!invertedIndex.containsKey(token)) {
-                invertedIndex.put(token, new ArrayList<>());
-            }
-            //update the number of occurence of each term in inverted index
-            invertedIndex.get(token).add(new Pair<Document, Integer>(doc, freqMap.get(token)));
-        }
-    }
-
-    //helper function
-    private Map<String, Integer> getFreqMap(List<String> doc) {
-        //create a map to store each word in the document with it's frequency
-        Map<String, Integer> ret = new HashMap<>();
-
-        for (String token : doc) {
-            ret.put(token, ret.getOrDefault(token, 0) + 1);
-        }
-        
-        return ret;
-    }
-
-
-    //retrive top K result of query q, the ranking was computed using cosine similarity function
-    private List<Pair<Document, Double>> retriveTopK(String q, int K) {
-        //store each document and it's word vector
-        Map<Document, Double> similarityMap = new HashMap<>();
-
-        //remove stop words, tokenization using porter stemmer
-        List<String> query = tokenizer.getTokens(q);
-
-        //get frequency map of the query
-        Map<String, Integer> freqMap = getFreqMap(query);
-
-        //get max frequency from query
-        int maxFreq = 0;
-        for (String term : query) {
-            maxFreq = Math.max(maxFreq, freqMap.get(term));
-        }
-
-        //a variable to calculated norm of the query is initialized to 0
-        double queryNorm = 0;
-
-        for (String term : query) {
-            //skip query terms that we never seen
-            if (! invertedIndex.containsKey(term)) {
-                continue;
-            }
-
-            //compute idf of term by document frequency
-            int df_t = documentFrequency.get(term);
-            double idf = Math.log10((N + 0.0) / (df_t + 0.0));
-
-            //compute w_t_q: weight of term in query
-            double w_t_q = tf_i_q(term, freqMap, maxFreq) * idf;
-            //update query norm
-            queryNorm += w_t_q * w_t_q;
-
-            for (Pair<Document, Integer> pair : invertedIndex.get(term)) {
-                Document doc = pair.getKey();
-                int tf = pair.getValue();
-                //calculate tf_idf of term t to document d
-                double w_t_d = tf_idf(tf, idf);
-
-                //update the consine score, update similarityMap
-                similarityMap.put(doc, similarityMap.getOrDefault(doc, 0.0) + w_t_d * w_t_q);
-            }
-        }
-
-        //compute query norm
-        queryNorm = Math.sqrt(queryNorm);
-
-        //use a priority queue to store all documents
-        PriorityQueue<Pair<Document, Double>> pq = new PriorityQueue<>();
-        //insert every element in the hashtable to priority queue to get top k elements
-        for (Document doc : similarityMap.keySet()) {
-            pq.add(new Pair<Document, Double>(doc, similarityMap.get(doc) / doc.getNorme() / queryNorm));
-        }
-
-        //initilize a list to store final result
-        List<Pair<Document, Double>> ret = new ArrayList<>();
-
-        //take the top K element from heap
-        int size = pq.size();
-        for (int i = 0; i < Math.min(K, size); i++) {
-            ret.add(pq.poll());
-        }
-
-        return ret;
-    }
-
-
-    //retrive top K result of query q, the ranking was computed using bm25 algorithm
-    private List<Pair<Document, Double>> retriveTopKbm25(String q, int K, double k, double b) {
-        //store each document and it's word vector
-        Map<Document, Double> similarityMap = new HashMap<>();
-
-        //remove stop words, tokenization using porter stemmer
-        List<String> query = tokenizer.getTokens(q);
-
-        //get frequency map of the query
-        Map<String, Integer> freqMap = getFreqMap(query);
-        //get max frequency from query
-        int maxFreq = 0;
-        for (String term : query) {
-            maxFreq = Math.max(maxFreq, freqMap.get(term));
-        }
-
-        for (String term : query) {
-            if (! invertedIndex.containsKey(term)) {
-                continue;
-            }
-
-            //compute idf of term by document frequency
-            int df_t = documentFrequency.getOrDefault(term, 0);
-
-            //compute w_t_q: weight of term in query by bm25 algorithm
-            double w_t_q = Math.log(1 + (0.5 + N - df_t) / (0.5 + df_t) );
-
-            for (Pair<Document, Integer> pair : invertedIndex.get(term)) {
-                Document doc = pair.getKey();
-                int tf = pair.getValue();
-                //calculate tf_idf of term t to document d
-                int docLength = doc.getTokenList().size();
-                double w_t_d = ((1.0 + k) * tf )/(0.0 + tf + k*(1 - b + b * docLength / averageDocLength));
-
-                //update the consine score, update similarityMap
-                similarityMap.put(doc, similarityMap.getOrDefault(doc, 0.0) + w_t_d * w_t_q);
-            }
-        }
-
-        
-
-        //use a priority queue to store all documents
-        PriorityQueue<Pair<Document, Double>> pq = new PriorityQueue<>();
-        //insert every element in the hashtable to priority queue to get top k elements
-        for (Document doc : similarityMap.keySet()) {
-            pq.add(new Pair<Document, Double>(doc, similarityMap.get(doc)));
-        }
-
-        //initilize a list to store final result
-        List<Pair<Document, Double>> ret = new ArrayList<>();
-
-        //take the top K element from heap
-        int size = pq.size();
-        for (int i = 0; i < Math.min(K, size); i++) {
-            ret.add(pq.poll());
-        }
-        return ret;
-    }
-
-
-    //We used the agumented term frequency as specified by assignment description
-    public static double tf_i_q(String term, Map<String, Integer> freqMap, int maxFreq) {
-        return 0.5 + 0.5 * freqMap.get(term) / maxFreq;
-    }
-
-    //tf_idf formula was found on lecture slide 3
-    public static double tf_idf(int tf, double idf) {
-        return (1 + Math.log10(tf + 0.0)) * idf;
-    }
-
-    //take the query file and out put retrivial results.
-    public void runQuery(String queryFile, String outputFile, int topK, boolean eval, String method, boolean refine) {
-        //create query parser using uery file
-        QueryParser parser = new QueryParser(queryFile);
-
-
-        try {
-            PrintWriter writer = new PrintWriter(outputFile, "UTF-8");
-            int queryNumber = 1;
-        
-            for (String query : parser) {
-                //process extension query
-                if (refine) {
-                    List<Pair<Document, Double>> topRank = null;
-                    if (method.equals("1")) {
-                        topRank = retriveTopK(query, 10);
-                    } else if (method.equals("2")) {
-                        topRank = retriveTopKbm25(query, 10, 0.3, 0.5);
-                    }
-                    
-                    for (Pair<Document, Double> p : topRank) {
-                        query += p.getKey().getRawText() + " ";
-                    }
-                }
-
-
-                List<Pair<Document, Double>> res = new ArrayList<>();
-                if (method.equals("1")) {
-                    res = retriveTopK(query, topK);
-                } else if (method.equals("2")) {
-                    //the parameters were chosen via a grid search approach
-                    res = retriveTopKbm25(query, topK, 0.3, 0.5);
-                }
-
-                int rank = 1;
-                for (Pair<Document, Double> result : res) {
-                    String docID = result.getKey().getID();
-                    double score = result.getValue();
-                    if (eval) { //out put evaluation file
-                        writer.printf("%d Q0 %s %d %.3f muRun\n", queryNumber, docID, rank, score);
-                    } else { //output normal result file
-                        writer.printf("MB%03d Q0 %s %d %.3f muRun\n", queryNumber, docID, rank, score);
-                    }
-                    rank++;
-                }
-                queryNumber++;
-            }
-            writer.close();
-        } catch (FileNotFoundException | UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void printVocabulary(int n) {
-        int i = 0;
-        for (String word : vocabulary) {
-            System.out.print(word + " ");
-            if (i++ % 10 == 0) {
-                System.out.println();
-            }
-            if (i == 100) {
-                return;
-            }
-        }
-    }
-
-    
-
-
-    public static void main(String[] args) {
-        //initialize an information retrivial system
-        IRSystem ir = new IRSystem("files/Trec_microblog11.txt", "files/StopWords.txt");
-        //ir.printVocabulary(100);
-        //run query on given queries, the last parameter denote two different options for calculating rank
-        //0 - calculate ranking using regular tf-idf method
-        //1 - calculate rankign using bm25 algorithme, which has a better performance compared to regular tf-idf
-        String option = args.length == 0 ? "2" : args[0];
-        ir.runQuery("files/topics_MB1-49.txt", "result.txt", 1000, false, option, true);
-        // String[] qs = {"BBC World Service staff cuts", "TSA airport screening"};
-        // for (String q : qs) {
-        //     List<Pair<Document, Double>> res = ir.retriveTopKbm25(q, 10, 0.3, 0.5);
-        //     for (Pair<Document, Double> p : res) {
-        //         System.out.println("Doc ID: " + p.getKey().getID());
-        //         System.out.println("Doc content: " + p.getKey().getRawText());
-        //         System.out.println("Doc tokens: " + Arrays.toString(p.getKey().getTokenList().toArray()));
-        //         System.out.println("Rank score: " + p.getValue() + "\n");
-
-        //     }
-
-        //     System.out.println("----------------------------------------");
-        // }
-    }
-}
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IRSystem {
+    //half of the heap, leaving room for queries and for the previous snapshot during a reload
+    public static final long DEFAULT_INDEX_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+
+    //the index queries are answered from. Each query reads it once, so a swap never
+    //mixes two snapshots in one query and the query path takes no lock
+    private final AtomicReference<IndexSnapshot> snapshot;
+    //builds new snapshots off the query path
+    private final ExecutorService builder;
+    //index near duplicate tweets once, see DuplicateDetector
+    private boolean collapseDuplicates;
+    //list the collapsed duplicates of each result after it
+    private boolean expandDuplicates;
+    //heap budget of documents and postings while indexing, see SpimiIndexer
+    private long indexMemoryBudget;
+    private Metrics metrics;
+    //query evaluation, the ranking functions plug into it
+    private ScoringEngine engine;
+    //two stage ranking of method "3"
+    private CascadeRanker cascade;
+    //the parameters were chosen via a grid search approach
+    private static final Similarity COSINE = new CosineSimilarity();
+    private static final BM25Similarity BM25 = new BM25Similarity(0.3, 0.5);
+
+    public IRSystem(String documents,String stopWord) {
+        this(documents, stopWord, false);
+    }
+
+    public IRSystem(String documents, String stopWord, boolean collapseDuplicates) {
+        this(documents, stopWord, collapseDuplicates, DEFAULT_INDEX_MEMORY_BUDGET);
+    }
+
+    public IRSystem(String documents, String stopWord, boolean collapseDuplicates, long indexMemoryBudget) {
+        this.collapseDuplicates = collapseDuplicates;
+        this.indexMemoryBudget = indexMemoryBudget;
+        metrics = new Metrics();
+        engine = new ScoringEngine(ScoringKernel.create());
+        cascade = new CascadeRanker(BM25, 2000, 1000);
+        builder = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "index-builder");
+            t.setDaemon(true);
+            return t;
+        });
+
+        snapshot = new AtomicReference<>();
+        swap(new IndexSnapshot(documents, stopWord, collapseDuplicates, indexMemoryBudget));
+    }
+
+    //index documents with the given stop words in the background and swap the new snapshot in when done.
+    //queries keep being served from the current snapshot meanwhile
+    public CompletableFuture<IndexSnapshot> reload(String documents, String stopWord) {
+        return CompletableFuture.supplyAsync(() -> swap(new IndexSnapshot(documents, stopWord, collapseDuplicates, indexMemoryBudget)), builder);
+    }
+
+    //serve queries from next from now on. Queries already running finish on the previous snapshot,
+    //which is garbage collected once the last of them drops its reference
+    public IndexSnapshot swap(IndexSnapshot next) {
+        //build the bm25 caches here rather than in the first query on next
+        next.lengthNorm(BM25.getK(), BM25.getB());
+        next.impacts(BM25.getK(), BM25.getB());
+        //and the forward index if method 3 was used on the previous snapshot
+        IndexSnapshot previous = snapshot.get();
+        if (previous != null && previous.hasForwardIndex()) {
+            next.getForwardIndex();
+        }
+        snapshot.set(next);
+        //figures of the previous snapshot, such as its pruning or duplicate counts, no longer apply
+        metrics.replaceAll(next.getMetrics());
+        return next;
+    }
+
+    public IndexSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    //We used the agumented term frequency as specified by assignment description
+    public static double tf_i_q(String term, Map<String, Integer> freqMap, int maxFreq) {
+        return 0.5 + 0.5 * freqMap.get(term) / maxFreq;
+    }
+
+    //tf_idf formula was found on lecture slide 3
+    public static double tf_idf(int tf, double idf) {
+        return (1 + Math.log10(tf + 0.0)) * idf;
+    }
+
+    //retrive the top K documents for query text from the current snapshot. method "1" ranks by
+    //cosine similarity, "2" by bm25, "3" by the two stage CascadeRanker; refine expands the query with
+    //the top 10 documents of a first pass
+    public List<Pair<Document, Double>> search(String text, int K, String method, boolean refine) {
+        return search(text, 0, K, method, refine);
+    }
+
+    //same as search, queryTweetTime is the ID of the latest tweet at query time, used by method "3"
+    public List<Pair<Document, Double>> search(String text, long queryTweetTime, int K, String method, boolean refine) {
+        IndexSnapshot index = snapshot.get();
+        Query query = new Query(text, index.getTokenizer(), index.getDictionary());
+        //process extension query, a query of filters alone has no terms to extend
+        if (refine && !query.getTerms().isEmpty()) {
+            List<Pair<Document, Double>> topRank = rank(index, query, 10, method, queryTweetTime, false);
+            for (Pair<Document, Double> p : topRank) {
+                query.addText(p.getKey().getRawText());
+            }
+        }
+
+        List<Pair<Document, Double>> res = rank(index, query, K, method, queryTweetTime, true);
+        if (expandDuplicates) {
+            res = expandDuplicates(res, K, query.getFilters());
+        } else if (collapseDuplicates && !query.getFilters().isEmpty()) {
+            res = firstMatches(res, query.getFilters());
+        }
+        return res;
+    }
+
+    //finalPass is false for the first pass of a refined query
+    private List<Pair<Document, Double>> rank(IndexSnapshot index, Query query, int K, String method, long queryTweetTime, boolean finalPass) {
+        if (method.equals("3")) {
+            return cascade.topK(index, query, K, queryTweetTime, finalPass);
+        }
+        return engine.topK(index, query, K, method.equals("1") ? COSINE : BM25);
+    }
+
+    //number of candidates the first stage of method "3" passes on and of results its second stage keeps
+    public void setCascadeDepths(int candidates, int results) {
+        cascade = new CascadeRanker(BM25, candidates, results);
+    }
+
+    //take the query file and out put retrivial results.
+    public void runQuery(String queryFile, String outputFile, int topK, boolean eval, String method, boolean refine) {
+        //create query parser using uery file
+        QueryParser parser = new QueryParser(queryFile);
+        long queryTime = 0;
+
+
+        try {
+            PrintWriter writer = new PrintWriter(outputFile, "UTF-8");
+            int queryNumber = 1;
+        
+            for (String text : parser) {
+                long start = System.nanoTime();
+                List<Pair<Document, Double>> res = search(text, parser.getQueryTweetTime(queryNumber - 1), topK, method, refine);
+                queryTime += System.nanoTime() - start;
+
+                int rank = 1;
+                for (Pair<Document, Double> result : res) {
+                    String docID = result.getKey().getID();
+                    double score = result.getValue();
+                    if (eval) { //out put evaluation file
+                        writer.printf("%d Q0 %s %d %.3f muRun\n", queryNumber, docID, rank, score);
+                    } else { //output normal result file
+                        writer.printf("MB%03d Q0 %s %d %.3f muRun\n", queryNumber, docID, rank, score);
+                    }
+                    rank++;
+                }
+                queryNumber++;
+            }
+            writer.close();
+            metrics.put("query.count", queryNumber - 1);
+            metrics.put("query.avg.ms", String.format("%.3f", queryTime / 1e6 / Math.max(1, queryNumber - 1)));
+            if (method.equals("3")) {
+                cascade.report(metrics);
+                //not part of memory.total.bytes, methods 1 and 2 do without
+                metrics.put("memory.optional.forward.bytes", getSnapshot().getForwardIndex().sizeInBytes());
+            }
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //list the collapsed near duplicates of each result right after it, with the same score. With filters
+    //a cluster is ranked when any of its tweets passes them, only those tweets are listed
+    private List<Pair<Document, Double>> expandDuplicates(List<Pair<Document, Double>> res, int K, List<Query.Filter> filters) {
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+        for (Pair<Document, Double> p : res) {
+            if (ret.size() == K) {
+                break;
+            }
+            if (FilterIndex.matches(filters, p.getKey().getRawText())) {
+                ret.add(p);
+            }
+            for (Document dup : p.getKey().getDuplicates()) {
+                if (ret.size() == K) {
+                    break;
+                }
+                if (FilterIndex.matches(filters, dup.getRawText())) {
+                    ret.add(new Pair<Document, Double>(dup, p.getValue()));
+                }
+            }
+        }
+        return ret;
+    }
+
+    //a cluster ranked for its filters may owe it to a collapsed duplicate, show the first of its tweets
+    //passing them in place of the indexed one
+    private List<Pair<Document, Double>> firstMatches(List<Pair<Document, Double>> res, List<Query.Filter> filters) {
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+        for (Pair<Document, Double> p : res) {
+            Document doc = p.getKey();
+            if (!FilterIndex.matches(filters, doc.getRawText())) {
+                for (Document dup : doc.getDuplicates()) {
+                    if (FilterIndex.matches(filters, dup.getRawText())) {
+                        doc = dup;
+                        break;
+                    }
+                }
+            }
+            ret.add(doc == p.getKey() ? p : new Pair<Document, Double>(doc, p.getValue()));
+        }
+        return ret;
+    }
+
+    public void setExpandDuplicates(boolean expandDuplicates) {
+        this.expandDuplicates = expandDuplicates;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void printVocabulary(int n) {
+        TermDictionary dictionary = snapshot.get().getDictionary();
+        int i = 0;
+        for (int id = 0; id < dictionary.size(); id++) {
+            System.out.print(dictionary.termAt(id) + " ");
+            if (i++ % 10 == 0) {
+                System.out.println();
+            }
+            if (i == 100) {
+                return;
+            }
+        }
+    }
+
+    
+
+
+    public static void main(String[] args) {
+        //initialize an information retrivial system
+        //the second argument "collapse" indexes near duplicate tweets once, "expand" also lists them in results
+        boolean collapse = args.length > 1 && (args[1].equals("collapse") || args[1].equals("expand"));
+        IRSystem ir = new IRSystem("files/Trec_microblog11.txt", "files/StopWords.txt", collapse);
+        ir.setExpandDuplicates(args.length > 1 && args[1].equals("expand"));
+        //ir.printVocabulary(100);
+        //run query on given queries, the last parameter denote two different options for calculating rank
+        //0 - calculate ranking using regular tf-idf method
+        //1 - calculate rankign using bm25 algorithme, which has a better performance compared to regular tf-idf
+        //3 - rerank the best bm25 candidates with proximity, phrase, recency and cosine features
+        String option = args.length == 0 ? "2" : args[0];
+        ir.runQuery("files/topics_MB1-49.txt", "result.txt", 1000, false, option, true);
+        ir.getMetrics().print(System.out);
+        // String[] qs = {"BBC World Service staff cuts", "TSA airport screening"};
+        // for (String q : qs) {
+        //     List<Pair<Document, Double>> res = ir.search(q, 10, "2", false);
+        //     for (Pair<Document, Double> p : res) {
+        //         System.out.println("Doc ID: " + p.getKey().getID());
+        //         System.out.println("Doc content: " + p.getKey().getRawText());
+        //         System.out.println("Doc tokens: " + Arrays.toString(p.getKey().getTokenList().toArray()));
+        //         System.out.println("Rank score: " + p.getValue() + "\n");
+
+        //     }
+
+        //     System.out.println("----------------------------------------");
+        // }
+    }
+}
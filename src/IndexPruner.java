@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//static index pruning, term centric as in Carmel et al. "Static index pruning for information retrieval
+//systems". The postings of each term are scored with the bm25 term score; those under epsilon times the
+//depth-th best score of the term are dropped, so the top depth documents of any single term query are
+//kept and the top of short queries changes little. Terms with at most depth postings are kept whole.
+//The pruned snapshot keeps df, N and the document norms of the full index, so scores stay comparable.
+//usage: IndexPruner <documents> <topics> <qrels> [fraction,fraction,..] [depth]
+//reports size, query latency and effectiveness of the index pruned to each fraction of its postings,
+//and how much of the top 10 of the first fraction (1, the full index, by default) each one keeps
+public class IndexPruner {
+    private final double k;
+    private final double b;
+    //rank of the score the threshold of a term is relative to
+    private final int depth;
+
+    public IndexPruner(BM25Similarity bm25, int depth) {
+        this.k = bm25.getK();
+        this.b = bm25.getB();
+        this.depth = depth;
+    }
+
+    //drop the postings scoring under epsilon times the depth-th best score of their term, epsilon in [0, 1]
+    public IndexSnapshot prune(IndexSnapshot index, double epsilon) {
+        return prune(index, ratios(index), epsilon);
+    }
+
+    //prune with the epsilon keeping about fraction of the postings. Epsilon is at most 1, an index
+    //can not be pruned below the top depth postings of every term
+    public IndexSnapshot pruneToSize(IndexSnapshot index, double fraction) {
+        double[] ratio = ratios(index);
+        double[] sorted = ratio.clone();
+        Arrays.sort(sorted);
+        int drop = (int) (sorted.length * (1 - fraction));
+        double epsilon = drop >= sorted.length ? 1 : Math.min(1, Math.max(0, sorted[Math.max(0, drop)]));
+        return prune(index, ratio, epsilon);
+    }
+
+    private IndexSnapshot prune(IndexSnapshot index, double[] ratio, double epsilon) {
+        long start = System.nanoTime();
+        TermDictionary dictionary = index.getDictionary();
+        int[] docs = index.getPostingDocs();
+        int[] tfs = index.getPostingFreqs();
+        int[] prunedDocs = new int[docs.length];
+        int[] prunedFreqs = new int[docs.length];
+        int[] offsets = new int[dictionary.size() + 1];
+        int kept = 0;
+        for (int id = 0; id < dictionary.size(); id++) {
+            offsets[id] = kept;
+            //postings stay sorted by ordinal
+            for (int p = dictionary.postingsStart(id); p < dictionary.postingsEnd(id); p++) {
+                if (ratio[p] >= epsilon) {
+                    prunedDocs[kept] = docs[p];
+                    prunedFreqs[kept] = tfs[p];
+                    kept++;
+                }
+            }
+        }
+        offsets[dictionary.size()] = kept;
+
+        Metrics metrics = new Metrics();
+        metrics.putAll(index.getMetrics());
+        metrics.put("prune.epsilon", String.format("%.3f", epsilon));
+        metrics.put("prune.depth", depth);
+        metrics.put("prune.kept", String.format("%.1f%%", 100.0 * kept / Math.max(1, docs.length)));
+        metrics.put("prune.ms", (System.nanoTime() - start) / 1000000);
+        return new IndexSnapshot(index, dictionary.withPostingsOffset(offsets),
+                Arrays.copyOf(prunedDocs, kept), Arrays.copyOf(prunedFreqs, kept), metrics);
+    }
+
+    //score of every posting over the depth-th best score of its term, +infinity for terms with at most
+    //depth postings. The idf of a term scales all its scores alike, so it is left out
+    private double[] ratios(IndexSnapshot index) {
+        TermDictionary dictionary = index.getDictionary();
+        int[] docs = index.getPostingDocs();
+        int[] tfs = index.getPostingFreqs();
+        double[] lengthNorm = index.lengthNorm(k, b);
+        double[] ratio = new double[docs.length];
+        for (int id = 0; id < dictionary.size(); id++) {
+            int from = dictionary.postingsStart(id);
+            int to = dictionary.postingsEnd(id);
+            if (to - from <= depth) {
+                Arrays.fill(ratio, from, to, Double.POSITIVE_INFINITY);
+                continue;
+            }
+            for (int p = from; p < to; p++) {
+                ratio[p] = ((1.0 + k) * tfs[p]) / (0.0 + tfs[p] + lengthNorm[docs[p]]);
+            }
+            double[] scores = Arrays.copyOfRange(ratio, from, to);
+            Arrays.sort(scores);
+            double z = scores[scores.length - depth];
+            for (int p = from; p < to; p++) {
+                ratio[p] /= z;
+            }
+        }
+        return ratio;
+    }
+
+    public static void main(String[] args) {
+        String[] fractions = (args.length > 3 ? args[3] : "1,0.8,0.6,0.4,0.2,0.1").split(",");
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        IRSystem ir = new IRSystem(args[0], "files/StopWords.txt");
+        Evaluator evaluator = new Evaluator(args[2]);
+        IndexSnapshot full = ir.getSnapshot();
+        IndexPruner pruner = new IndexPruner(new BM25Similarity(0.3, 0.5), depth);
+        QueryParser parser = new QueryParser(args[1]);
+
+        List<String> rows = new ArrayList<>();
+        Map<String, Map<Integer, List<String>>> unpruned = new HashMap<>();
+        for (String fraction : fractions) {
+            IndexSnapshot index = Double.parseDouble(fraction) >= 1 ? full : pruner.pruneToSize(full, Double.parseDouble(fraction));
+            ir.swap(index);
+            for (String method : new String[] {"1", "2"}) {
+                //first pass warms up the JIT, the second is timed
+                Map<Integer, List<String>> rankings = null;
+                long time = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    rankings = new HashMap<>();
+                    long start = System.nanoTime();
+                    int topic = 0;
+                    for (String text : parser) {
+                        List<String> ranking = new ArrayList<>();
+                        for (Pair<Document, Double> p : ir.search(text, parser.getQueryTweetTime(topic), 1000, method, false)) {
+                            ranking.add(p.getKey().getID());
+                        }
+                        rankings.put(++topic, ranking);
+                    }
+                    time = System.nanoTime() - start;
+                }
+                unpruned.putIfAbsent(method, rankings);
+                double[] eval = evaluator.evaluate(rankings);
+                rows.add(String.format("%8s %7s %8d %9d %6s %8.3f %6.4f %6.4f %7.3f", fraction,
+                        index.getMetrics().getValues().getOrDefault("prune.epsilon", "-"),
+                        index.getPostingDocs().length, index.getMemory().getPostingsBytes(), method,
+                        time / 1e6 / rankings.size(), eval[0], eval[1], overlap(unpruned.get(method), rankings, 10)));
+            }
+        }
+
+        System.out.println("fraction epsilon postings     bytes method query.ms    MAP   P@30 overlap@10");
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    //mean fraction of the top n of each topic in expected also in the top n of actual
+    private static double overlap(Map<Integer, List<String>> expected, Map<Integer, List<String>> actual, int n) {
+        double sum = 0;
+        for (Map.Entry<Integer, List<String>> e : expected.entrySet()) {
+            List<String> top = e.getValue().subList(0, Math.min(n, e.getValue().size()));
+            if (top.isEmpty()) {
+                sum += 1;
+                continue;
+            }
+            List<String> other = actual.getOrDefault(e.getKey(), List.of());
+            Set<String> found = new HashSet<>(other.subList(0, Math.min(n, other.size())));
+            int common = 0;
+            for (String docID : top) {
+                common += found.contains(docID) ? 1 : 0;
+            }
+            sum += (double) common / top.size();
+        }
+        return sum / Math.max(1, expected.size());
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//an immutable index of one document collection: tokenizer, documents, term dictionary and postings.
+//IRSystem answers every query from a single snapshot, so a new snapshot can be built next to the one
+//in use and swapped in; a snapshot no longer referenced by IRSystem or an in-flight query is garbage.
+public class IndexSnapshot {
+    private final String docFiles; // document path
+    private final String stopWordFile; //stop words path
+    private final Tokenizer tokenizer; //the tokenizer built from this snapshot's stop words
+    private final int N; //total number of documents in snapshot
+    private final Map<String, Document> documentMap; //associated each document is stored with it's ID
+    //documents by ordinal, the ordinal is the position of the document in the collection
+    private final List<Document> documents;
+    private final double averageDocLength;
+    //sorted term dictionary, term -> document frequency and postings range
+    private final TermDictionary dictionary;
+    //postings of all terms back to back, the dictionary gives the range of each term
+    private final int[] postingDocs;
+    private final int[] postingFreqs;
+    //norm of the tf-idf vector of each document by ordinal
+    private final double[] normes;
+    //hashtags, mentions, retweets and links of the indexed documents
+    private final FilterIndex filters;
+    //term IDs of each indexed document in token order, built on first use, see getForwardIndex
+    private volatile ForwardIndex forward;
+    private final Metrics metrics;
+    private final MemoryAccounting memory;
+    //bm25 length norms of the last (k, b) asked for, replaced as a whole so readers need no lock
+    private volatile LengthNorm lengthNorm;
+    //quantized bm25 postings of the last (k, b) asked for, see impacts
+    private volatile Impacts impacts;
+
+    //index the documents of docFiles, one "ID \t text" line per document. indexMemoryBudget bounds the
+    //heap of documents and postings, postings are spilled to disk when it is reached and the collection
+    //is rejected with MemoryBudgetExceededException when even that is not enough. An unreadable docFiles
+    //throws UncheckedIOException
+    public IndexSnapshot(String docFiles, String stopWordFile, boolean collapseDuplicates, long indexMemoryBudget) {
+        this.docFiles = docFiles;
+        this.stopWordFile = stopWordFile;
+        this.tokenizer = new Tokenizer(stopWordFile);
+        this.documentMap = new HashMap<>();
+        this.metrics = new Metrics();
+
+        long start = System.nanoTime();
+        List<Document> documents = new ArrayList<>();
+        double averageDocLength = 0;
+        SpimiIndexer indexer = new SpimiIndexer(indexMemoryBudget);
+        DuplicateDetector detector = new DuplicateDetector();
+        FilterIndex filters = new FilterIndex();
+        int collapsed = 0;
+        long collapsedPostings = 0;
+        long transientBytes = 0;
+
+        try(BufferedReader br = new BufferedReader(new FileReader(docFiles))) {
+            for(String line; (line = br.readLine()) != null; ) {
+                String[] content = line.split("\\t");
+                String docID = content[0];
+                String text = content[1];
+
+                //create document object
+                Document doc = new Document(docID, text, tokenizer);
+                documentMap.put(docID, doc);
+                transientBytes += MemoryAccounting.tokenBytes(doc);
+                //the document stays in memory with its documentMap entry
+                indexer.reserve(MemoryAccounting.documentBytes(doc) + 40);
+                Set<String> tokens = collapseDuplicates ? DuplicateDetector.content(doc) : null;
+                if (tokens != null && tokens.size() >= DuplicateDetector.MIN_TOKENS) {
+                    //a near duplicate is only recorded as a member of its cluster, not indexed
+                    long signature = DuplicateDetector.signature(tokens);
+                    int original = detector.find(signature);
+                    if (original >= 0) {
+                        documents.get(original).addDuplicate(doc);
+                        filters.addDuplicate(original, text);
+                        collapsed++;
+                        collapsedPostings += doc.getFreqMap().size();
+                        doc.compact();
+                        continue;
+                    }
+                    detector.add(signature, documents.size());
+                }
+                //extend inverted index with current document
+                indexer.add(documents.size(), doc.getFreqMap());
+                filters.add(documents.size(), text);
+                documents.add(doc);
+                //add document length to average
+                averageDocLength += doc.length();
+                //tokens are in the index now
+                doc.compact();
+            }
+            indexer.finish();
+            filters.finish(documents.size());
+        } catch (IOException e) {
+            //a snapshot without its documents is of no use, let IRSystem.reload report why
+            throw new UncheckedIOException(e);
+        }
+
+        //only indexed documents count in collection statistics
+        this.N = documents.size();
+        this.documents = Collections.unmodifiableList(documents);
+        this.averageDocLength = averageDocLength / N;
+        this.dictionary = indexer.getDictionary();
+        this.postingDocs = indexer.getPostingDocs();
+        this.postingFreqs = indexer.getPostingFreqs();
+        this.filters = filters;
+
+        //The norm of each document is calulated once we built the inverted index
+        this.normes = calcNormes();
+
+        System.out.println("Indexing done, vovabulary size = " + dictionary.size());
+
+        metrics.put("index.ms", (System.nanoTime() - start) / 1000000);
+        metrics.put("index.runs", indexer.getRuns());
+        metrics.put("index.terms", dictionary.size());
+        reportSizes();
+        if (collapseDuplicates) {
+            metrics.put("dedup.collapsed", collapsed);
+            metrics.put("dedup.postings.saved", collapsedPostings);
+            metrics.put("dedup.postings.saving", String.format("%.1f%%", 100.0 * collapsedPostings / (collapsedPostings + postingDocs.length)));
+        }
+        metrics.put("filters.hashtags", filters.hashtagCount());
+        metrics.put("filters.mentions", filters.mentionCount());
+        memory = new MemoryAccounting(this, documentMap.size(), transientBytes);
+        memory.report(metrics);
+    }
+
+
+    //index with the same documents and collection statistics as full, df and N included, but only the postings
+    //of the dictionary. Document norms are the ones of full too, so scores stay comparable to full's. Term IDs
+    //are full's, so is the forward index if full has built it
+    IndexSnapshot(IndexSnapshot full, TermDictionary dictionary, int[] postingDocs, int[] postingFreqs, Metrics metrics) {
+        this.docFiles = full.docFiles;
+        this.stopWordFile = full.stopWordFile;
+        this.tokenizer = full.tokenizer;
+        this.N = full.N;
+        this.documentMap = full.documentMap;
+        this.documents = full.documents;
+        this.averageDocLength = full.averageDocLength;
+        this.dictionary = dictionary;
+        this.postingDocs = postingDocs;
+        this.postingFreqs = postingFreqs;
+        this.normes = full.normes;
+        this.filters = full.filters;
+        this.forward = full.forward;
+        this.metrics = metrics;
+
+        reportSizes();
+        //the postings left out by collapsing are counted against the full postings
+        metrics.remove("dedup.postings.saved");
+        metrics.remove("dedup.postings.saving");
+        memory = new MemoryAccounting(this, documentMap.size(), full.memory.getTransientBytesPerDocument() * documentMap.size());
+        memory.report(metrics);
+    }
+
+    //size of the postings and dictionary, and of the same index as hash maps
+    private void reportSizes() {
+        long mapBytes = mapSizeInBytes();
+        long postingBytes = 2 * (16 + 4L * postingDocs.length);
+        metrics.put("index.postings", postingDocs.length);
+        metrics.put("index.maps.bytes", mapBytes);
+        metrics.put("index.dictionary.bytes", dictionary.sizeInBytes());
+        metrics.put("index.postings.bytes", postingBytes);
+        metrics.put("index.saving", String.format("%.1f%%", 100.0 * (mapBytes - dictionary.sizeInBytes() - postingBytes) / mapBytes));
+    }
+
+    //norm of the tf-idf vector of every document. A term occurring tf times in a document
+    //contributes tf times the square of its weight, as each occurrence is a component of the vector
+    private double[] calcNormes() {
+        double[] temp = new double[N];
+        for (int id = 0; id < dictionary.size(); id++) {
+            double idf = Math.log10((0.0 + N) / (0.0 + dictionary.docFreq(id)));
+            for (int p = dictionary.postingsStart(id); p < dictionary.postingsEnd(id); p++) {
+                double w = IRSystem.tf_idf(postingFreqs[p], idf);
+                temp[postingDocs[p]] += postingFreqs[p] * w * w;
+            }
+        }
+        for (int d = 0; d < N; d++) {
+            temp[d] = Math.sqrt(temp[d]);
+            documents.get(d).setNorme(temp[d]);
+        }
+        return temp;
+    }
+
+    //approximate heap footprint the same index takes as HashSet/HashMap based vocabulary, documentFrequency
+    //and invertedIndex of (document, tf) pairs, term strings counted once. A HashMap entry costs a 32 byte node
+    //plus its table slot, a boxed Integer 16 bytes (small values are cached)
+    private long mapSizeInBytes() {
+        long ret = 0;
+        long slots = 4 * 4 / 3;
+        for (int id = 0; id < dictionary.size(); id++) {
+            ret += MemoryAccounting.stringBytes(dictionary.termAt(id));
+            //vocabulary and documentFrequency entries
+            ret += 2 * (32 + slots) + (dictionary.docFreq(id) > 127 ? 16 : 0);
+            //invertedIndex entry, the ArrayList, its backing array and one Pair per posting
+            int start = dictionary.postingsStart(id);
+            int end = dictionary.postingsEnd(id);
+            ret += 32 + slots + 24 + 16 + 4L * (end - start) * 3 / 2;
+            for (int p = start; p < end; p++) {
+                ret += 24 + (postingFreqs[p] > 127 ? 16 : 0);
+            }
+        }
+        return ret;
+    }
+
+    //bm25 length normalization k * (1 - b + b * |d| / avgdl) of every document, cached for the last k and b
+    public double[] lengthNorm(double k, double b) {
+        LengthNorm cached = lengthNorm;
+        if (cached == null || cached.k != k || cached.b != b) {
+            double[] norm = new double[N];
+            for (int d = 0; d < N; d++) {
+                int docLength = documents.get(d).length();
+                norm[d] = k*(1 - b + b * docLength / averageDocLength);
+            }
+            cached = new LengthNorm(k, b, norm);
+            lengthNorm = cached;
+        }
+        return cached.norm;
+    }
+
+    //bm25 score idf * (k + 1) * tf / (tf + lengthNorm) of every posting, parallel to getPostingDocs, quantized
+    //to 8 bits on one scale for all terms so the impacts of the query terms of a document can be added.
+    //read as impact & 0xFF, a posting never has impact 0. Cached for the last k and b
+    public byte[] impacts(double k, double b) {
+        Impacts cached = impacts;
+        if (cached == null || cached.k != k || cached.b != b) {
+            double[] norm = lengthNorm(k, b);
+            double max = 0;
+            for (int id = 0; id < dictionary.size(); id++) {
+                double idf = bm25Idf(dictionary.docFreq(id));
+                for (int p = dictionary.postingsStart(id); p < dictionary.postingsEnd(id); p++) {
+                    max = Math.max(max, idf * (1 + k) * postingFreqs[p] / (postingFreqs[p] + norm[postingDocs[p]]));
+                }
+            }
+            byte[] impact = new byte[postingDocs.length];
+            for (int id = 0; id < dictionary.size(); id++) {
+                double idf = bm25Idf(dictionary.docFreq(id));
+                for (int p = dictionary.postingsStart(id); p < dictionary.postingsEnd(id); p++) {
+                    double score = idf * (1 + k) * postingFreqs[p] / (postingFreqs[p] + norm[postingDocs[p]]);
+                    impact[p] = (byte) Math.max(1, Math.ceil(255 * score / max));
+                }
+            }
+            cached = new Impacts(k, b, impact);
+            impacts = cached;
+        }
+        return cached.impact;
+    }
+
+    //same as BM25Similarity.queryWeight
+    private double bm25Idf(int df) {
+        return Math.log(1 + (0.5 + N - df) / (0.5 + df));
+    }
+
+    public String getDocFiles() {
+        return docFiles;
+    }
+
+    public String getStopWordFile() {
+        return stopWordFile;
+    }
+
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    public int size() {
+        return N;
+    }
+
+    public Document getDocument(int ordinal) {
+        return documents.get(ordinal);
+    }
+
+    public Document getDocument(String docID) {
+        return documentMap.get(docID);
+    }
+
+    public double getAverageDocLength() {
+        return averageDocLength;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int[] getPostingDocs() {
+        return postingDocs;
+    }
+
+    public int[] getPostingFreqs() {
+        return postingFreqs;
+    }
+
+    public double[] getNormes() {
+        return normes;
+    }
+
+    public FilterIndex getFilters() {
+        return filters;
+    }
+
+    //the forward index, built on the first call. Only the second stage of CascadeRanker reads it, and it takes
+    //heap comparable to the postings, so a snapshot only queried by methods 1 and 2 never builds it
+    public ForwardIndex getForwardIndex() {
+        ForwardIndex ret = forward;
+        if (ret == null) {
+            synchronized (this) {
+                ret = forward;
+                if (ret == null) {
+                    ret = new ForwardIndex(this);
+                    forward = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    //whether getForwardIndex has been called on this snapshot
+    public boolean hasForwardIndex() {
+        return forward != null;
+    }
+
+    //estimated heap footprint of the snapshot by component
+    public MemoryAccounting getMemory() {
+        return memory;
+    }
+
+    //figures collected while building the snapshot
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private static class LengthNorm {
+        final double k;
+        final double b;
+        final double[] norm;
+
+        LengthNorm(double k, double b, double[] norm) {
+            this.k = k;
+            this.b = b;
+            this.norm = norm;
+        }
+    }
+
+    private static class Impacts {
+        final double k;
+        final double b;
+        final byte[] impact;
+
+        Impacts(double k, double b, byte[] impact) {
+            this.k = k;
+            this.b = b;
+            this.impact = impact;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//latency histogram in the style of HdrHistogram: values are counted in buckets covering powers of two,
+//each split in SUB_BUCKETS linear sub-buckets, so any recorded value is reported within 1/SUB_BUCKETS
+//(under 1%) of its true value whatever its magnitude. Recording is lock free and can be done from
+//any number of threads.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public LatencyHistogram() {
+        //values below SUB_BUCKETS are exact, then SUB_BUCKETS buckets per power of two up to Long.MAX_VALUE
+        counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    }
+
+    //record one value, in any unit, negative values count as 0
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getTotalCount() {
+        return total.get();
+    }
+
+    public long getMaxValue() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    //the smallest recorded value (up to bucket precision) that percentile percent of the values are at or below
+    public long getValueAtPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    //bucket of value: the top SUB_BUCKET_BITS + 1 significant bits of value select the sub-bucket
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1);
+        //sub is in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int sub = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+    }
+
+    //largest value falling in bucket i
+    private static long highestValue(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = i / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + i % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//open loop query load against the in process IRSystem API.
+//queries are sent at a fixed rate whatever the response times: query i is due at start + i / qps and its
+//latency is measured from that due time, not from when a worker got to it. A slow query therefore shows
+//up in the latency of every query queued behind it instead of silently lowering the offered load
+//(coordinated omission).
+//usage: LoadGenerator <documents> <topics> [seconds per point] [qps,qps,..] [concurrency,concurrency,..]
+public class LoadGenerator {
+    private static final int SYNTHETIC_QUERIES = 1000;
+
+    private final IRSystem ir;
+
+    public LoadGenerator(IRSystem ir) {
+        this.ir = ir;
+    }
+
+    //latencies and throughput of one run at a fixed rate
+    public static class Result {
+        public final double targetQps;
+        public final double achievedQps;
+        public final long errors;
+        //latency in microseconds
+        public final LatencyHistogram latency;
+
+        Result(double targetQps, double achievedQps, long errors, LatencyHistogram latency) {
+            this.targetQps = targetQps;
+            this.achievedQps = achievedQps;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8.1f %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %6d", targetQps, achievedQps,
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                    latency.getMaxValue() / 1000.0, errors);
+        }
+    }
+
+    //send queries round robin at qps for seconds, served by concurrency threads
+    public Result run(List<String> queries, String method, boolean refine, double qps, int concurrency, double seconds) {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong lastDone = new AtomicLong();
+
+        long interval = (long) (1e9 / qps);
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long sent = 0;
+        for (long due = start; due < end; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String query = queries.get((int) (sent++ % queries.size()));
+            long dueTime = due;
+            workers.execute(() -> {
+                try {
+                    ir.search(query, 1000, method, refine);
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+                long done = System.nanoTime();
+                latency.record((done - dueTime) / 1000);
+                lastDone.accumulateAndGet(done, Math::max);
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //sent queries take sent intervals to offer, the last one is due an interval before the end of the run.
+        //Counting only up to its completion would credit the run with an extra query
+        double elapsed = Math.max(lastDone.get() - start, sent * interval) / 1e9;
+        return new Result(qps, sent / elapsed, errors.get(), latency);
+    }
+
+    //queries of 1 to 4 dictionary terms, each term drawn with probability proportional to its
+    //document frequency, so frequent terms with long postings lists are frequent in queries too
+    public List<String> syntheticQueries(int n, long seed) {
+        TermDictionary dictionary = ir.getSnapshot().getDictionary();
+        long[] cumulative = new long[dictionary.size()];
+        long sum = 0;
+        for (int id = 0; id < dictionary.size(); id++) {
+            sum += dictionary.docFreq(id);
+            cumulative[id] = sum;
+        }
+
+        Random random = new Random(seed);
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder query = new StringBuilder();
+            int terms = 1 + random.nextInt(4);
+            for (int t = 0; t < terms; t++) {
+                long r = (long) (random.nextDouble() * sum);
+                int id = Arrays.binarySearch(cumulative, r + 1);
+                id = id < 0 ? -id - 1 : id;
+                query.append(dictionary.termAt(id)).append(' ');
+            }
+            ret.add(query.toString());
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        double[] rates = Arrays.stream((args.length > 3 ? args[3] : "10,20,50,100,200,500").split(",")).mapToDouble(Double::parseDouble).toArray();
+        int[] concurrencies = Arrays.stream((args.length > 4 ? args[4] : "1,2,4").split(",")).mapToInt(Integer::parseInt).toArray();
+
+        IRSystem ir = new IRSystem(args[0], "files/StopWords.txt");
+        LoadGenerator load = new LoadGenerator(ir);
+        List<String> topics = new ArrayList<>();
+        for (String query : new QueryParser(args[1])) {
+            topics.add(query);
+        }
+        List<String> synthetic = load.syntheticQueries(SYNTHETIC_QUERIES, 42);
+
+        //warm up the JIT before measuring anything
+        load.run(topics, "2", true, rates[0], 1, seconds);
+
+        String[][] sources = {{"topics"}, {"synthetic"}};
+        for (String[] source : sources) {
+            List<String> queries = source[0].equals("topics") ? topics : synthetic;
+            for (String method : new String[] {"1", "2"}) {
+                for (boolean refine : new boolean[] {false, true}) {
+                    for (int concurrency : concurrencies) {
+                        System.out.printf("%n%s queries, method %s, refine %s, %d threads, latency in ms%n", source[0], method, refine, concurrency);
+                        System.out.println("  target  achieved       p50       p90       p99     p99.9       max errors");
+                        for (double qps : rates) {
+                            Result result = load.run(queries, method, refine, qps, concurrency, seconds);
+                            System.out.println(result);
+                            //past saturation every higher rate only grows the queue
+                            if (result.achievedQps < 0.9 * qps) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
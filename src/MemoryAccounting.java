@@ -0,0 +1,142 @@
+import java.util.List;
+import java.util.Map;
+
+//estimated heap footprint of an index snapshot by component. The estimates assume a 64 bit JVM with
+//compressed oops: 12 byte object headers, 4 byte references, objects aligned to 8 bytes, compact strings.
+//the forward index is left out, it is only built for method 3, see IndexSnapshot.getForwardIndex
+public class MemoryAccounting {
+    private final long dictionaryBytes;
+    private final long postingsBytes;
+    private final long normesBytes;
+    private final long filtersBytes;
+    private final long documentsBytes;
+    private final long documentMapBytes;
+    private final long transientBytesPerDocument;
+    private final int documents;
+
+    //transientBytes is the sum of the token lists and frequency maps the documents held while being indexed
+    public MemoryAccounting(IndexSnapshot index, int allDocuments, long transientBytes) {
+        this.documents = allDocuments;
+        this.dictionaryBytes = index.getDictionary().sizeInBytes();
+        this.postingsBytes = intArrayBytes(index.getPostingDocs().length) + intArrayBytes(index.getPostingFreqs().length);
+        this.normesBytes = 16 + 8L * index.size();
+        this.filtersBytes = index.getFilters().sizeInBytes();
+
+        long docs = 16 + 4L * index.size();
+        for (int d = 0; d < index.size(); d++) {
+            Document doc = index.getDocument(d);
+            docs += documentBytes(doc);
+            for (Document dup : doc.getDuplicates()) {
+                docs += documentBytes(dup);
+            }
+        }
+        this.documentsBytes = docs;
+        this.documentMapBytes = hashMapBytes(allDocuments);
+        this.transientBytesPerDocument = allDocuments == 0 ? 0 : transientBytes / allDocuments;
+    }
+
+    public long getDictionaryBytes() {
+        return dictionaryBytes;
+    }
+
+    public long getPostingsBytes() {
+        return postingsBytes;
+    }
+
+    public long getNormesBytes() {
+        return normesBytes;
+    }
+
+    public long getFiltersBytes() {
+        return filtersBytes;
+    }
+
+    //Document objects with their ID and raw text, and the list holding them
+    public long getDocumentsBytes() {
+        return documentsBytes;
+    }
+
+    public long getDocumentMapBytes() {
+        return documentMapBytes;
+    }
+
+    public long getTotalBytes() {
+        return dictionaryBytes + postingsBytes + normesBytes + filtersBytes + documentsBytes + documentMapBytes;
+    }
+
+    //heap a document keeps once indexed, including its documentMap entry
+    public long getBytesPerDocument() {
+        return documents == 0 ? 0 : (documentsBytes + documentMapBytes) / documents;
+    }
+
+    //heap a document takes only while it is being indexed: token list and frequency map
+    public long getTransientBytesPerDocument() {
+        return transientBytesPerDocument;
+    }
+
+    public void report(Metrics metrics) {
+        metrics.put("memory.dictionary.bytes", dictionaryBytes);
+        metrics.put("memory.postings.bytes", postingsBytes);
+        metrics.put("memory.normes.bytes", normesBytes);
+        metrics.put("memory.filters.bytes", filtersBytes);
+        metrics.put("memory.documents.bytes", documentsBytes);
+        metrics.put("memory.documentMap.bytes", documentMapBytes);
+        metrics.put("memory.total.bytes", getTotalBytes());
+        metrics.put("memory.perDocument.bytes", getBytesPerDocument());
+        metrics.put("memory.perDocument.transient.bytes", transientBytesPerDocument);
+    }
+
+    //a Document once compacted: the object, its ID, raw text and duplicate list
+    public static long documentBytes(Document doc) {
+        //header + 5 references + int + double
+        long ret = align(12 + 5 * 4 + 4 + 8);
+        ret += stringBytes(doc.getID()) + stringBytes(doc.getRawText());
+        if (!doc.getDuplicates().isEmpty()) {
+            ret += arrayListBytes(doc.getDuplicates().size());
+        }
+        return ret;
+    }
+
+    //token list and frequency map of a document that is not compacted yet
+    public static long tokenBytes(Document doc) {
+        List<String> tokens = doc.getTokenList();
+        Map<String, Integer> freqMap = doc.getFreqMap();
+        long ret = arrayListBytes(tokens.size()) + hashMapBytes(freqMap.size());
+        for (String token : tokens) {
+            ret += stringBytes(token);
+        }
+        for (int tf : freqMap.values()) {
+            //Integer.valueOf caches -128..127
+            ret += tf > 127 ? 16 : 0;
+        }
+        return ret;
+    }
+
+    //String object and its byte[], latin-1 characters take one byte
+    public static long stringBytes(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) {
+            latin1 = s.charAt(i) < 256;
+        }
+        return 24 + align(16 + (latin1 ? 1L : 2L) * s.length());
+    }
+
+    //HashMap with n entries: the map, its table sized for the default load factor and one node per entry
+    public static long hashMapBytes(int n) {
+        long table = Integer.highestOneBit(Math.max(1, n * 4 / 3)) * 2L;
+        return 48 + align(16 + 4 * table) + 32L * n;
+    }
+
+    //ArrayList with n elements, backing array grown by half each time
+    public static long arrayListBytes(int n) {
+        return 24 + align(16 + 4L * (n + n / 2));
+    }
+
+    public static long intArrayBytes(int n) {
+        return align(16 + 4L * n);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
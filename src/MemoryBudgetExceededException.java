@@ -0,0 +1,8 @@
+//thrown when an index would not fit in its memory budget, before the JVM runs out of heap
+public class MemoryBudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MemoryBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,41 @@
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//named figures collected while indexing and querying, printed in insertion order.
+//indexing and querying may run on different threads, so access is synchronized
+public class Metrics {
+    private Map<String, Object> values = new LinkedHashMap<>();
+
+    public synchronized void put(String name, Object value) {
+        values.put(name, value);
+    }
+
+    public synchronized void putAll(Metrics other) {
+        values.putAll(other.getValues());
+    }
+
+    //drop every figure and take the ones of other instead
+    public synchronized void replaceAll(Metrics other) {
+        values = other.getValues();
+    }
+
+    public synchronized void remove(String name) {
+        values.remove(name);
+    }
+
+    public synchronized Object get(String name) {
+        return values.get(name);
+    }
+
+    //a copy of the current figures
+    public synchronized Map<String, Object> getValues() {
+        return new LinkedHashMap<>(values);
+    }
+
+    public synchronized void print(PrintStream out) {
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            out.println(e.getKey() + " = " + e.getValue());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.List;
+
+//a tokenized query. Besides plain words, the query syntax supports
+//  obam*   - prefix query, expanded to the dictionary terms starting with "obam"
+//  obama~  - fuzzy query, expanded to the dictionary terms close to the stem of "obama"
+//expansions are bounded by MAX_EXPANSIONS so a short prefix can not blow up the query; the most frequent
+//terms are kept, for a fuzzy query the closest ones first.
+//and filters, which restrict the documents scored without adding terms, see FilterIndex
+//  #tag           - tweets with hashtag #tag
+//  @user          - tweets mentioning @user
+//  filter:rt      - retweets
+//  filter:links   - tweets with a link
+//a filter prefixed with - excludes the tweets it matches instead, e.g. -filter:rt
+//a query of filters alone, e.g. "#egypt" or "@user filter:links", lists the tweets they accept, newest first
+public class Query {
+    public static final int MAX_EXPANSIONS = 50;
+
+    private Tokenizer tokenizer;
+    //list of query terms, a term occurring twice in query is in the list twice
+    private List<String> terms;
+    //number of terms coming from the query text itself, the rest were added by addText
+    private int originalSize;
+    private List<Filter> filters;
+    //whether every word of the query text is a filter
+    private boolean filterOnly;
+
+    public Query(String text, Tokenizer tokenizer, TermDictionary dictionary) {
+        this.tokenizer = tokenizer;
+        this.terms = new ArrayList<>();
+        this.filters = new ArrayList<>();
+
+        //words that are not using the query syntax are tokenized together
+        StringBuilder plain = new StringBuilder();
+        filterOnly = true;
+        for (String word : text.trim().split("\\s+")) {
+            Filter filter = Filter.parse(word);
+            if (filter != null) {
+                filters.add(filter);
+                continue;
+            }
+            filterOnly = false;
+            if (word.length() > 1 && word.endsWith("*")) {
+                String prefix = word.substring(0, word.length() - 1).toLowerCase().replaceAll("\\p{P}", "");
+                if (prefix.length() > 0) {
+                    for (int id : dictionary.prefix(prefix, MAX_EXPANSIONS)) {
+                        terms.add(dictionary.termAt(id));
+                    }
+                }
+            } else if (word.length() > 1 && word.endsWith("~")) {
+                for (String stem : tokenizer.getTokens(word.substring(0, word.length() - 1))) {
+                    //allow one typo in short words, two in longer ones
+                    int maxEdits = stem.length() < 5 ? 1 : 2;
+                    for (int id : dictionary.fuzzy(stem, maxEdits, MAX_EXPANSIONS)) {
+                        terms.add(dictionary.termAt(id));
+                    }
+                }
+            } else {
+                plain.append(word).append(' ');
+            }
+        }
+        terms.addAll(tokenizer.getTokens(plain.toString()));
+        originalSize = terms.size();
+    }
+
+    //extend query with free text, used by query refinement. The text is not parsed for query syntax
+    public void addText(String text) {
+        terms.addAll(tokenizer.getTokens(text));
+    }
+
+    //filters every scored document must pass, empty when the query has none
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    //true for a query of filters alone. A query with words that give no terms, such as a prefix no dictionary
+    //term starts with, is not: it matches nothing rather than every document the filters accept
+    public boolean isFilterOnly() {
+        return filterOnly && !filters.isEmpty();
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    //the terms of the query text, without the ones added by refinement
+    public List<String> getOriginalTerms() {
+        return new ArrayList<>(terms.subList(0, originalSize));
+    }
+
+    public static class Filter {
+        public enum Type { HASHTAG, MENTION, RETWEET, LINK }
+
+        private final Type type;
+        //lower cased hashtag or user name, null for the other types
+        private final String value;
+        private final boolean negated;
+
+        public Filter(Type type, String value, boolean negated) {
+            this.type = type;
+            this.value = value;
+            this.negated = negated;
+        }
+
+        //the filter word stands for, null if word is not a filter
+        static Filter parse(String word) {
+            boolean negated = word.startsWith("-");
+            String w = (negated ? word.substring(1) : word).toLowerCase();
+            if (w.equals("filter:rt") || w.equals("filter:retweets")) {
+                return new Filter(Type.RETWEET, null, negated);
+            } else if (w.equals("filter:links")) {
+                return new Filter(Type.LINK, null, negated);
+            } else if (w.matches("[#@]\\w+")) {
+                return new Filter(w.charAt(0) == '#' ? Type.HASHTAG : Type.MENTION, w.substring(1), negated);
+            }
+            return null;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public boolean isNegated() {
+            return negated;
+        }
+    }
+}
@@ -5,9 +5,12 @@ import java.io.*;
 
 public class QueryParser implements Iterable<String>  {
     List<String> queryList;
+    //ID of the latest tweet at the time of each query
+    List<Long> queryTweetTimeList;
 
     public QueryParser(String queryFile) {
         queryList = new ArrayList<>();
+        queryTweetTimeList = new ArrayList<>();
         try {
             BufferedReader bufferR = new BufferedReader(new FileReader(queryFile));
             while (bufferR.readLine() != null) {
@@ -23,6 +26,7 @@ public class QueryParser implements Iterable<String>  {
                 
                 //System.out.println(title);
                 queryList.add(title);
+                queryTweetTimeList.add(Long.parseLong(querytweettime.trim()));
             }
 
             bufferR.close();
@@ -34,6 +38,11 @@ public class QueryParser implements Iterable<String>  {
 
     }
        
+    //querytweettime of the i-th query, tweet IDs grow with time
+    public long getQueryTweetTime(int i) {
+        return queryTweetTimeList.get(i);
+    }
+
     @Override
     public Iterator<String> iterator() {
         return queryList.iterator();
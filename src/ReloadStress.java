@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+//reloads the index again and again while query threads keep searching it, to check that a swap never fails
+//nor holds up a query. Reloads alternate between the stop word files, so consecutive snapshots differ in
+//vocabulary. A query slower than the block threshold counts as blocked; every query is run by method
+//1, 2 or 3 in turn, so the caches of each method are exercised on fresh snapshots.
+//usage: ReloadStress <documents> <topics> [reloads] [threads] [stopwords,stopwords,..] [block ms]
+public class ReloadStress {
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int reloads = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        String[] stopWords = (args.length > 4 ? args[4] : "files/StopWords.txt").split(",");
+        long blockMicros = 1000 * (args.length > 5 ? Long.parseLong(args[5]) : 1000);
+
+        IRSystem ir = new IRSystem(args[0], stopWords[0]);
+        //method 3 is queried, build its forward index before timing rather than in the first query; reloads
+        //build it for each new snapshot from then on
+        ir.getSnapshot().getForwardIndex();
+        List<String> queries = new ArrayList<>();
+        for (String query : new QueryParser(args[1])) {
+            queries.add(query);
+        }
+
+        //latency in microseconds
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong empty = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong blocked = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers.execute(() -> {
+                for (int i = first; !stop.get(); i++) {
+                    long start = System.nanoTime();
+                    try {
+                        if (ir.search(queries.get(i % queries.size()), 100, String.valueOf(1 + i % 3), false).isEmpty()) {
+                            empty.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                    long micros = (System.nanoTime() - start) / 1000;
+                    latency.record(micros);
+                    if (micros > blockMicros) {
+                        blocked.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        long reloadNanos = 0;
+        int swapped = 0;
+        for (int r = 1; r <= reloads; r++) {
+            long start = System.nanoTime();
+            IndexSnapshot next = ir.reload(args[0], stopWords[r % stopWords.length]).get();
+            reloadNanos += System.nanoTime() - start;
+            swapped += ir.getSnapshot() == next ? 1 : 0;
+        }
+        stop.set(true);
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.printf("reloads %d, swapped %d, %.0f ms per reload%n", reloads, swapped, reloadNanos / 1e6 / Math.max(1, reloads));
+        System.out.printf("queries %d, failed %d, blocked %d, empty %d%n", latency.getTotalCount(), failed.get(), blocked.get(), empty.get());
+        System.out.printf("latency ms p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n", latency.getValueAtPercentile(50) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3, latency.getMaxValue() / 1e3);
+    }
+}
@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+
+//micro benchmarks of query evaluation.
+//  ScoringBenchmark [postings per term] [documents]
+//      the scoring kernels on synthetic postings lists, add --add-modules jdk.incubator.vector to the JVM for the vector one
+//  ScoringBenchmark engine <documents file> <query file>
+//      ScoringEngine against the hand written per model loops it replaced, kept below as reference
+public class ScoringBenchmark {
+    //postings scored in warmup and in the measured rounds, so short lists get enough calls to be JIT compiled
+    private static final long WARMUP_POSTINGS = 50_000_000L;
+    private static final long ROUND_POSTINGS = 200_000_000L;
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("engine")) {
+            engine(args[1], args[2]);
+            return;
+        }
+        int postings = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int N = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        //sorted distinct ordinals and tweet like term frequencies, mostly 1
+        Random random = new Random(42);
+        int[] docs = new int[postings];
+        int[] tfs = new int[postings];
+        int d = 0;
+        for (int p = 0; p < postings; p++) {
+            d += 1 + random.nextInt(Math.max(1, 2 * N / postings - 1));
+            docs[p] = Math.min(d, N - 1 - (postings - 1 - p));
+            tfs[p] = random.nextInt(10) == 0 ? 2 + random.nextInt(3) : 1;
+        }
+        double[] lengthNorm = new double[N];
+        for (int i = 0; i < N; i++) {
+            lengthNorm[i] = 0.3 * (1 - 0.5 + 0.5 * (3 + random.nextInt(15)) / 9.0);
+        }
+
+        ScoringKernel[] kernels = {new ScoringKernel(), ScoringKernel.create()};
+        for (ScoringKernel kernel : kernels) {
+            double[] acc = new double[N];
+            double bm25 = run(() -> kernel.bm25(docs, tfs, 0, postings, lengthNorm, 0.3, 1.7, acc), postings);
+            double tfIdf = run(() -> kernel.tfIdf(docs, tfs, 0, postings, 2.1, 0.8, acc), postings);
+            System.out.printf("%-12s bm25 %.3f ns/posting, tf-idf %.3f ns/posting%n", kernel.getName(), bm25, tfIdf);
+        }
+    }
+
+    //average query latency of the engine and the reference loops, both methods, queries with and without refine text
+    private static void engine(String docFiles, String queryFile) {
+        IndexSnapshot index = new IndexSnapshot(docFiles, "files/StopWords.txt", false, IRSystem.DEFAULT_INDEX_MEMORY_BUDGET);
+        ScoringKernel kernel = ScoringKernel.create();
+        ScoringEngine engine = new ScoringEngine(kernel);
+        Similarity cosine = new CosineSimilarity();
+        Similarity bm25 = new BM25Similarity(0.3, 0.5);
+
+        //short topic titles, and long ones made of a title and the text of its top 10 documents
+        List<Query> queries = new ArrayList<>();
+        for (String text : new QueryParser(queryFile)) {
+            queries.add(new Query(text, index.getTokenizer(), index.getDictionary()));
+            Query refined = new Query(text, index.getTokenizer(), index.getDictionary());
+            for (Pair<Document, Double> p : engine.topK(index, refined, 10, bm25)) {
+                refined.addText(p.getKey().getRawText());
+            }
+            queries.add(refined);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            //the first round is warmup
+            double[] ms = {
+                time(queries, q -> retriveTopK(kernel, index, q, 1000)),
+                time(queries, q -> engine.topK(index, q, 1000, cosine)),
+                time(queries, q -> retriveTopKbm25(kernel, index, q, 1000, 0.3, 0.5)),
+                time(queries, q -> engine.topK(index, q, 1000, bm25)),
+            };
+            if (round == 1) {
+                System.out.printf("cosine: loop %.3f ms/query, engine %.3f ms/query%n", ms[0], ms[1]);
+                System.out.printf("bm25:   loop %.3f ms/query, engine %.3f ms/query%n", ms[2], ms[3]);
+            }
+        }
+    }
+
+    private static double time(List<Query> queries, Consumer<Query> search) {
+        int rounds = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (Query q : queries) {
+                search.accept(q);
+            }
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds / queries.size();
+    }
+
+    //retrive top K result of query q, the ranking was computed using cosine similarity function
+    private static List<Pair<Document, Double>> retriveTopK(ScoringKernel kernel, IndexSnapshot index, Query q, int K) {
+        int N = index.size();
+        TermDictionary dictionary = index.getDictionary();
+        //cosine numerator of each document
+        double[] acc = ScoringEngine.newAccumulators(N);
+
+        //remove stop words, tokenization using porter stemmer
+        List<String> query = q.getTerms();
+
+        //get frequency map of the query
+        Map<String, Integer> freqMap = ScoringEngine.getFreqMap(query);
+
+        //get max frequency from query
+        int maxFreq = 0;
+        for (String term : query) {
+            maxFreq = Math.max(maxFreq, freqMap.get(term));
+        }
+
+        //a variable to calculated norm of the query is initialized to 0
+        double queryNorm = 0;
+
+        for (String term : query) {
+            //skip query terms that we never seen
+            int id = dictionary.lookup(term);
+            if (id < 0) {
+                continue;
+            }
+
+            //compute idf of term by document frequency
+            int df_t = dictionary.docFreq(id);
+            double idf = Math.log10((N + 0.0) / (df_t + 0.0));
+
+            //compute w_t_q: weight of term in query
+            double w_t_q = IRSystem.tf_i_q(term, freqMap, maxFreq) * idf;
+            //update query norm
+            queryNorm += w_t_q * w_t_q;
+
+            //add tf_idf of term t to document d times w_t_q for the whole postings list
+            kernel.tfIdf(index.getPostingDocs(), index.getPostingFreqs(), dictionary.postingsStart(id), dictionary.postingsEnd(id), idf, w_t_q, acc);
+        }
+
+        //compute query norm
+        queryNorm = Math.sqrt(queryNorm);
+
+        //use a priority queue to store all documents
+        PriorityQueue<Pair<Document, Double>> pq = new PriorityQueue<>();
+        //insert every scored document to priority queue to get top k elements
+        for (int d = 0; d < N; d++) {
+            if (ScoringEngine.touched(acc[d])) {
+                Document doc = index.getDocument(d);
+                pq.add(new Pair<Document, Double>(doc, acc[d] / doc.getNorme() / queryNorm));
+            }
+        }
+
+        //initilize a list to store final result
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+
+        //take the top K element from heap
+        int size = pq.size();
+        for (int i = 0; i < Math.min(K, size); i++) {
+            ret.add(pq.poll());
+        }
+
+        return ret;
+    }
+
+
+    //retrive top K result of query q, the ranking was computed using bm25 algorithm
+    private static List<Pair<Document, Double>> retriveTopKbm25(ScoringKernel kernel, IndexSnapshot index, Query q, int K, double k, double b) {
+        int N = index.size();
+        TermDictionary dictionary = index.getDictionary();
+        //bm25 score of each document
+        double[] acc = ScoringEngine.newAccumulators(N);
+        double[] norm = index.lengthNorm(k, b);
+
+        //remove stop words, tokenization using porter stemmer
+        List<String> query = q.getTerms();
+
+        //get frequency map of the query
+        Map<String, Integer> freqMap = ScoringEngine.getFreqMap(query);
+        //get max frequency from query
+        int maxFreq = 0;
+        for (String term : query) {
+            maxFreq = Math.max(maxFreq, freqMap.get(term));
+        }
+
+        for (String term : query) {
+            int id = dictionary.lookup(term);
+            if (id < 0) {
+                continue;
+            }
+
+            //compute idf of term by document frequency
+            int df_t = dictionary.docFreq(id);
+
+            //compute w_t_q: weight of term in query by bm25 algorithm
+            double w_t_q = Math.log(1 + (0.5 + N - df_t) / (0.5 + df_t) );
+
+            //add bm25 weight of term t in document d times w_t_q for the whole postings list
+            kernel.bm25(index.getPostingDocs(), index.getPostingFreqs(), dictionary.postingsStart(id), dictionary.postingsEnd(id), norm, k, w_t_q, acc);
+        }
+
+        
+
+        //use a priority queue to store all documents
+        PriorityQueue<Pair<Document, Double>> pq = new PriorityQueue<>();
+        //insert every scored document to priority queue to get top k elements
+        for (int d = 0; d < N; d++) {
+            if (ScoringEngine.touched(acc[d])) {
+                pq.add(new Pair<Document, Double>(index.getDocument(d), acc[d]));
+            }
+        }
+
+        //initilize a list to store final result
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+
+        //take the top K element from heap
+        int size = pq.size();
+        for (int i = 0; i < Math.min(K, size); i++) {
+            ret.add(pq.poll());
+        }
+        return ret;
+    }
+
+    //average ns per posting of one call to block
+    private static double run(Runnable block, int postings) {
+        for (long i = 0; i < WARMUP_POSTINGS / postings; i++) {
+            block.run();
+        }
+        long rounds = ROUND_POSTINGS / postings;
+        long start = System.nanoTime();
+        for (long i = 0; i < rounds; i++) {
+            block.run();
+        }
+        return (System.nanoTime() - start) / (double) rounds / postings;
+    }
+}
@@ -0,0 +1,352 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//term at a time query evaluation shared by all similarities:
+//tokenized query -> postings traversal -> per document accumulators -> top K heap.
+//everything depending on the ranking function is asked from the Similarity, once per term
+//or once per scored document, never per posting.
+public class ScoringEngine {
+    //a query traversing fewer postings is scored on the calling thread, forking would cost more than it saves
+    public static final int DEFAULT_MIN_PARALLEL_POSTINGS = 50000;
+    //smallest range of document ordinals scored by one fork-join task
+    private static final int MIN_RANGE = 4096;
+
+    //scores postings lists, vectorized when the Vector API is available
+    private final ScoringKernel kernel;
+    //scores long queries range by range, see parallelTopK
+    private final ForkJoinPool pool;
+    private final int minParallelPostings;
+
+    public ScoringEngine(ScoringKernel kernel) {
+        this(kernel, ForkJoinPool.commonPool(), DEFAULT_MIN_PARALLEL_POSTINGS);
+    }
+
+    public ScoringEngine(ScoringKernel kernel, ForkJoinPool pool, int minParallelPostings) {
+        this.kernel = kernel;
+        this.pool = pool;
+        this.minParallelPostings = minParallelPostings;
+    }
+
+    //retrive top K result of query q from index, ranked by similarity
+    public List<Pair<Document, Double>> topK(IndexSnapshot index, Query q, int K, Similarity similarity) {
+        int N = index.size();
+        TermDictionary dictionary = index.getDictionary();
+
+        List<String> query = q.getTerms();
+        //get frequency map of the query
+        Map<String, Integer> freqMap = getFreqMap(query);
+        //get max frequency from query
+        int maxFreq = 0;
+        for (String term : query) {
+            maxFreq = Math.max(maxFreq, freqMap.get(term));
+        }
+
+        //a variable to calculated norm of the query is initialized to 0
+        double queryNorm = 0;
+        //dictionary IDs and query weights of the known query terms,
+        //a term occurring twice in query is scored twice
+        int[] ids = new int[query.size()];
+        double[] weights = new double[query.size()];
+        int terms = 0;
+        long postings = 0;
+        for (String term : query) {
+            //skip query terms that we never seen
+            int id = dictionary.lookup(term);
+            if (id < 0) {
+                continue;
+            }
+            double w_t_q = similarity.queryWeight(N, dictionary.docFreq(id), freqMap.get(term), maxFreq);
+            queryNorm += w_t_q * w_t_q;
+            ids[terms] = id;
+            weights[terms] = w_t_q;
+            terms++;
+            postings += dictionary.postingsEnd(id) - dictionary.postingsStart(id);
+        }
+
+        //compute query norm
+        queryNorm = Math.sqrt(queryNorm);
+
+        long[] accept = index.getFilters().accept(q.getFilters(), N);
+        if (q.isFilterOnly() && accept != null) {
+            return newestAccepted(index, accept, K);
+        }
+        Scorer scorer = new Scorer(index, similarity, Arrays.copyOf(ids, terms), Arrays.copyOf(weights, terms), queryNorm, accept);
+        if (postings >= minParallelPostings && pool.getParallelism() > 1 && N >= 2 * MIN_RANGE) {
+            return parallelTopK(index, scorer, K);
+        }
+
+        double[] acc = newAccumulators(N);
+        scorer.score(acc, 0, N);
+        return toList(index, scorer.top(acc, 0, N, K));
+    }
+
+    //a query of filters alone has nothing to score: the K newest documents it accepts by tweet ID, which
+    //carries the creation time, all with score 0. Documents with an ID that is not a number come last
+    static List<Pair<Document, Double>> newestAccepted(IndexSnapshot index, long[] accept, int K) {
+        //{tweet ID, ordinal} ordered worst first, so the head is the one to evict
+        PriorityQueue<long[]> best = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        for (int d = 0; d < index.size(); d++) {
+            if (!FilterIndex.accepts(accept, d)) {
+                continue;
+            }
+            long id;
+            try {
+                id = Long.parseLong(index.getDocument(d).getID());
+            } catch (NumberFormatException e) {
+                id = Long.MIN_VALUE;
+            }
+            best.add(new long[] {id, d});
+            if (best.size() > K) {
+                best.poll();
+            }
+        }
+
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+        while (!best.isEmpty()) {
+            ret.add(new Pair<Document, Double>(index.getDocument((int) best.poll()[1]), 0.0));
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    //split the document ordinals in ranges scored by fork-join tasks, each task traversing only the part
+    //of every postings list in its range, into its own slice of the accumulators, and keeping its own
+    //top K. Merged by score, then ordinal, so the result does not depend on how the ranges were scheduled
+    private List<Pair<Document, Double>> parallelTopK(IndexSnapshot index, Scorer scorer, int K) {
+        int N = index.size();
+        int ranges = Math.min(pool.getParallelism() * 4, N / MIN_RANGE);
+        double[] acc = new double[N];
+        return toList(index, pool.invoke(new RangeTask(scorer, acc, K, 0, N, (N + ranges - 1) / ranges)));
+    }
+
+    private static List<Pair<Document, Double>> toList(IndexSnapshot index, Hits hits) {
+        List<Pair<Document, Double>> ret = new ArrayList<>();
+        for (int i = 0; i < hits.size; i++) {
+            ret.add(new Pair<Document, Double>(index.getDocument(hits.docs[i]), hits.scores[i]));
+        }
+        return ret;
+    }
+
+    //scoring of one query, shared by all ranges
+    private class Scorer {
+        final IndexSnapshot index;
+        final Similarity similarity;
+        final int[] ids;
+        final double[] weights;
+        final double queryNorm;
+        final double[] docStats;
+        //documents passing the filters of the query, null if it has none
+        final long[] accept;
+
+        Scorer(IndexSnapshot index, Similarity similarity, int[] ids, double[] weights, double queryNorm, long[] accept) {
+            this.index = index;
+            this.similarity = similarity;
+            this.ids = ids;
+            this.weights = weights;
+            this.queryNorm = queryNorm;
+            this.docStats = similarity.docStats(index);
+            this.accept = accept;
+        }
+
+        //score the documents [from, to) into acc, indexed by ordinal. Every posting outside the range is
+        //skipped, postings of a term being sorted by ordinal. With filters, the postings of documents they
+        //reject are dropped before the kernel sees them, so those documents are never scored nor touched
+        void score(double[] acc, int from, int to) {
+            int N = index.size();
+            TermDictionary dictionary = index.getDictionary();
+            int[] docs = index.getPostingDocs();
+            int[] tfs = index.getPostingFreqs();
+            int[] acceptedDocs = null;
+            int[] acceptedFreqs = null;
+            for (int t = 0; t < ids.length; t++) {
+                int start = dictionary.postingsStart(ids[t]);
+                int end = dictionary.postingsEnd(ids[t]);
+                if (from > 0) {
+                    start = lowerBound(docs, start, end, from);
+                }
+                if (to < N) {
+                    end = lowerBound(docs, start, end, to);
+                }
+                int df = dictionary.docFreq(ids[t]);
+                if (accept == null) {
+                    similarity.score(kernel, docs, tfs, start, end, N, df, weights[t], docStats, acc);
+                    continue;
+                }
+                if (acceptedDocs == null || acceptedDocs.length < end - start) {
+                    acceptedDocs = new int[end - start];
+                    acceptedFreqs = new int[end - start];
+                }
+                int n = 0;
+                for (int p = start; p < end; p++) {
+                    if (FilterIndex.accepts(accept, docs[p])) {
+                        acceptedDocs[n] = docs[p];
+                        acceptedFreqs[n] = tfs[p];
+                        n++;
+                    }
+                }
+                similarity.score(kernel, acceptedDocs, acceptedFreqs, 0, n, N, df, weights[t], docStats, acc);
+            }
+        }
+
+        double finish(int d, double score) {
+            return similarity.finish(score, docStats[d], queryNorm);
+        }
+
+        //top K of the documents [from, to) scored into acc, best first, ties going to the lower ordinal
+        Hits top(double[] acc, int from, int to, int K) {
+            //touched documents of [from, to) in ordinal order with their final scores
+            int[] docs = new int[to - from];
+            double[] scores = new double[to - from];
+            int touched = 0;
+            for (int d = from; d < to; d++) {
+                if (touched(acc[d])) {
+                    docs[touched] = d;
+                    scores[touched] = finish(d, acc[d]);
+                    touched++;
+                }
+            }
+
+            //keep the documents above the K-th best score, and as many of those at it as fit, lowest ordinals first
+            double threshold = Double.NEGATIVE_INFINITY;
+            if (touched > K) {
+                double[] sorted = Arrays.copyOf(scores, touched);
+                Arrays.sort(sorted);
+                threshold = sorted[touched - K];
+            }
+            int above = 0;
+            for (int i = 0; i < touched; i++) {
+                above += scores[i] > threshold ? 1 : 0;
+            }
+            Integer[] kept = new Integer[Math.min(K, touched)];
+            int n = 0;
+            int atThreshold = kept.length - above;
+            for (int i = 0; i < touched && n < kept.length; i++) {
+                if (scores[i] > threshold || (scores[i] == threshold && atThreshold-- > 0)) {
+                    kept[n++] = i;
+                }
+            }
+            Arrays.sort(kept, (x, y) -> Hits.compare(scores[x], docs[x], scores[y], docs[y]));
+
+            Hits ret = new Hits(kept.length);
+            for (int i : kept) {
+                ret.docs[ret.size] = docs[i];
+                ret.scores[ret.size] = scores[i];
+                ret.size++;
+            }
+            return ret;
+        }
+    }
+
+    //scores the ranges in [from, to) and returns their merged top K
+    private class RangeTask extends RecursiveTask<Hits> {
+        private static final long serialVersionUID = 1L;
+
+        final Scorer scorer;
+        //shared by all tasks, each one only touches its range
+        final double[] acc;
+        final int K;
+        final int from;
+        final int to;
+        final int rangeSize;
+
+        RangeTask(Scorer scorer, double[] acc, int K, int from, int to, int rangeSize) {
+            this.scorer = scorer;
+            this.acc = acc;
+            this.K = K;
+            this.from = from;
+            this.to = to;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected Hits compute() {
+            if (to - from <= rangeSize) {
+                return leaf();
+            }
+            int middle = from + (to - from) / 2;
+            RangeTask left = new RangeTask(scorer, acc, K, from, middle, rangeSize);
+            left.fork();
+            Hits right = new RangeTask(scorer, acc, K, middle, to, rangeSize).compute();
+            return Hits.merge(left.join(), right, K);
+        }
+
+        private Hits leaf() {
+            Arrays.fill(acc, from, to, -0.0);
+            scorer.score(acc, from, to);
+            return scorer.top(acc, from, to, K);
+        }
+    }
+
+    //top documents of a range, best first
+    private static class Hits {
+        final int[] docs;
+        final double[] scores;
+        int size;
+
+        Hits(int capacity) {
+            docs = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        //negative when (s1, d1) ranks before (s2, d2): higher score first, lower ordinal on ties
+        static int compare(double s1, int d1, double s2, int d2) {
+            int c = Double.compare(s2, s1);
+            return c != 0 ? c : Integer.compare(d1, d2);
+        }
+
+        static Hits merge(Hits a, Hits b, int K) {
+            Hits ret = new Hits(Math.min(K, a.size + b.size));
+            int i = 0;
+            int j = 0;
+            while (ret.size < ret.docs.length) {
+                boolean takeA = j == b.size || (i < a.size && compare(a.scores[i], a.docs[i], b.scores[j], b.docs[j]) < 0);
+                ret.docs[ret.size] = takeA ? a.docs[i] : b.docs[j];
+                ret.scores[ret.size] = takeA ? a.scores[i++] : b.scores[j++];
+                ret.size++;
+            }
+            return ret;
+        }
+    }
+
+    //first position in [from, to) of docs holding an ordinal >= ordinal
+    static int lowerBound(int[] docs, int from, int to, int ordinal) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (docs[middle] < ordinal) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    //per document score accumulators, indexed by document ordinal. They start at -0.0, which turns
+    //into +0.0 or above as soon as a posting of the document is scored, so touched documents can be
+    //told apart without any bookkeeping in the scoring kernels.
+    static double[] newAccumulators(int N) {
+        double[] acc = new double[N];
+        Arrays.fill(acc, -0.0);
+        return acc;
+    }
+
+    static boolean touched(double score) {
+        return Double.doubleToRawLongBits(score) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    //frequency of each term in the query
+    static Map<String, Integer> getFreqMap(List<String> query) {
+        Map<String, Integer> ret = new HashMap<>();
+        for (String token : query) {
+            ret.put(token, ret.getOrDefault(token, 0) + 1);
+        }
+        return ret;
+    }
+}
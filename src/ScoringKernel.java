@@ -0,0 +1,40 @@
+//adds the score contributions of one block of postings of a term to per document accumulators.
+//postings p in [from, to) are (docs[p], tfs[p]); a document occurs at most once per term,
+//so the block can be scored in any order. This is the scalar kernel, VectorScoringKernel (in the separate
+//src-vector source root) overrides it with the Vector API when the jdk.incubator.vector module is available.
+public class ScoringKernel {
+
+    //the vector kernel when it was compiled from src-vector and the JVM was started with
+    //--add-modules jdk.incubator.vector, the scalar one otherwise or when -Dirsystem.vector=false
+    public static ScoringKernel create() {
+        boolean enabled = !"false".equals(System.getProperty("irsystem.vector"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ScoringKernel) Class.forName("VectorScoringKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.out.println("Vector API not usable, using scalar scoring: " + e);
+            }
+        }
+        return new ScoringKernel();
+    }
+
+    //bm25: acc[d] += (k + 1) * tf / (tf + lengthNorm[d]) * weight, lengthNorm[d] = k * (1 - b + b * |d| / avgdl)
+    public void bm25(int[] docs, int[] tfs, int from, int to, double[] lengthNorm, double k, double weight, double[] acc) {
+        for (int p = from; p < to; p++) {
+            int d = docs[p];
+            int tf = tfs[p];
+            acc[d] += ((1.0 + k) * tf) / (0.0 + tf + lengthNorm[d]) * weight;
+        }
+    }
+
+    //cosine numerator: acc[d] += (1 + log10(tf)) * idf * weight
+    public void tfIdf(int[] docs, int[] tfs, int from, int to, double idf, double weight, double[] acc) {
+        for (int p = from; p < to; p++) {
+            acc[docs[p]] += IRSystem.tf_idf(tfs[p], idf) * weight;
+        }
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+}
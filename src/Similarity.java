@@ -0,0 +1,24 @@
+//a ranking function for ScoringEngine. The engine walks the postings of the query terms once and
+//leaves the formula to the similarity: a query side weight per term, the scoring of a whole postings
+//list into per document accumulators, and a final per document step. Each subclass scores postings
+//through its own ScoringKernel method, so the per posting loop only ever sees one formula.
+public abstract class Similarity {
+
+    //statistics of every document score and finish need, by ordinal. Computed once per snapshot
+    //and cached there, a query only looks them up
+    public abstract double[] docStats(IndexSnapshot index);
+
+    //query side weight of a term with document frequency df, occurring qtf times in the query,
+    //maxQtf being the highest frequency of any query term
+    public abstract double queryWeight(int N, int df, int qtf, int maxQtf);
+
+    //add the contribution of the postings [from, to) of a term with document frequency df to acc
+    public abstract void score(ScoringKernel kernel, int[] docs, int[] tfs, int from, int to,
+                               int N, int df, double queryWeight, double[] docStats, double[] acc);
+
+    //final score of a document from its accumulated score, its statistic and the query norm
+    //(square root of the sum of the squared query weights)
+    public double finish(double score, double docStat, double queryNorm) {
+        return score;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//single pass in memory indexing (SPIMI). Postings are collected per term in a hash map until the estimated
+//size of the map plus the heap reserved by the caller for documents reaches the memory budget, then the map
+//is written to disk as a run sorted by term and cleared. When the reserved heap alone leaves too little
+//room for postings, or the final postings would not fit, MemoryBudgetExceededException rejects the input.
+//finish() merges the runs (k-way, one open reader per run) into the term dictionary and the flat postings
+//arrays. Documents must be added in increasing ordinal order, so concatenating the
+//postings of a term run after run keeps them sorted by ordinal.
+//the merged index is still on the heap: runs bound the memory of the postings map while indexing, not the
+//size of the final index, which must fit in the budget next to the documents.
+public class SpimiIndexer {
+    //estimated cost of a new term: String, HashMap node and table slot, Postings object, initial array
+    private static final long TERM_BYTES = 40 + 32 + 8 + 16 + 16 + 16;
+
+    private long memoryBudget;
+    //heap taken by other parts of the index, documents mostly, counted against the budget
+    private long reserved;
+    //term -> postings collected since the last flush
+    private Map<String, Postings> postings;
+    //estimated heap used by postings
+    private long bytesUsed;
+    //total number of postings added
+    private long total;
+    private List<File> runs;
+
+    //the merged index, available after finish()
+    private TermDictionary dictionary;
+    private int[] postingDocs;
+    private int[] postingFreqs;
+
+    public SpimiIndexer(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.postings = new HashMap<>();
+        this.runs = new ArrayList<>();
+    }
+
+    //add the postings of one document
+    public void add(int ordinal, Map<String, Integer> freqMap) throws IOException {
+        for (Map.Entry<String, Integer> e : freqMap.entrySet()) {
+            Postings list = postings.get(e.getKey());
+            if (list == null) {
+                list = new Postings();
+                postings.put(e.getKey(), list);
+                bytesUsed += TERM_BYTES + 2L * e.getKey().length();
+            }
+            bytesUsed += list.add(ordinal, e.getValue());
+            total++;
+        }
+        if (bytesUsed + reserved >= memoryBudget) {
+            flush();
+            //at least a tenth of the budget must be left for postings, or every document would spill a run
+            if (reserved >= memoryBudget - memoryBudget / 10) {
+                discardRuns();
+                throw new MemoryBudgetExceededException("Documents take " + reserved + " of " + memoryBudget + " bytes of index memory budget");
+            }
+        }
+    }
+
+    //count bytes of heap used outside the indexer against the budget
+    public void reserve(long bytes) {
+        reserved += bytes;
+    }
+
+    //estimated heap used by the postings not yet written to disk
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public int getRuns() {
+        return runs.size();
+    }
+
+    //build the final index from the runs and what is still in memory
+    public void finish() throws IOException {
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Too many postings for one index: " + total);
+        }
+        long finalBytes = 2 * MemoryAccounting.intArrayBytes((int) total);
+        if (runs.isEmpty() && reserved + bytesUsed + finalBytes <= memoryBudget) {
+            //everything fit in the budget, the final arrays are filled from the map next to them
+            postingDocs = new int[(int) total];
+            postingFreqs = new int[(int) total];
+            String[] terms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[] df = new int[terms.length];
+            int[] offsets = new int[terms.length + 1];
+            int p = 0;
+            for (int i = 0; i < terms.length; i++) {
+                Postings list = postings.get(terms[i]);
+                df[i] = list.size / 2;
+                offsets[i] = p;
+                p = list.copyTo(postingDocs, postingFreqs, p);
+            }
+            offsets[terms.length] = p;
+            postings = null;
+            dictionary = new TermDictionary(terms, df, offsets);
+            return;
+        }
+
+        //the map goes to disk first, so only the final arrays are on the heap while the runs are merged
+        flush();
+        postings = null;
+        if (reserved + finalBytes > memoryBudget) {
+            discardRuns();
+            throw new MemoryBudgetExceededException("Final postings need " + finalBytes + " bytes, " + (memoryBudget - reserved) + " of the index memory budget are left");
+        }
+        postingDocs = new int[(int) total];
+        postingFreqs = new int[(int) total];
+        merge();
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int[] getPostingDocs() {
+        return postingDocs;
+    }
+
+    public int[] getPostingFreqs() {
+        return postingFreqs;
+    }
+
+    private void discardRuns() {
+        for (File run : runs) {
+            run.delete();
+        }
+        postings = null;
+    }
+
+    //write the in memory postings as a run sorted by term
+    private void flush() throws IOException {
+        if (postings.isEmpty()) {
+            return;
+        }
+        String[] terms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+
+        File run = File.createTempFile("spimi", ".run");
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+            out.writeInt(terms.length);
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                out.writeUTF(term);
+                out.writeInt(list.size / 2);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeInt(list.data[i]);
+                }
+            }
+        }
+        runs.add(run);
+        postings.clear();
+        bytesUsed = 0;
+    }
+
+    //k-way merge of all runs into the final dictionary and postings arrays
+    private void merge() throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            List<String> terms = new ArrayList<>();
+            int[] df = new int[1024];
+            int[] offsets = new int[1025];
+            int p = 0;
+            while (!queue.isEmpty()) {
+                String term = queue.peek().term;
+                int n = terms.size();
+                if (n == df.length) {
+                    df = Arrays.copyOf(df, n * 2);
+                    offsets = Arrays.copyOf(offsets, n * 2 + 1);
+                }
+                terms.add(term);
+                offsets[n] = p;
+                //the queue orders equal terms by run, which is ordinal order
+                while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+                    RunReader reader = queue.poll();
+                    df[n] += reader.count;
+                    p = reader.readPostings(postingDocs, postingFreqs, p);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            }
+            offsets[terms.size()] = p;
+            dictionary = new TermDictionary(terms.toArray(new String[0]), Arrays.copyOf(df, terms.size()), Arrays.copyOf(offsets, terms.size() + 1));
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    //growable (ordinal, tf) pairs of one term
+    private static class Postings {
+        int[] data = new int[4];
+        int size = 0;
+
+        //append a posting, return the number of bytes the backing array grew by
+        long add(int ordinal, int tf) {
+            long grown = 0;
+            if (size + 2 > data.length) {
+                int capacity = data.length * 3 / 2 + 2;
+                grown = 4L * (capacity - data.length);
+                data = Arrays.copyOf(data, capacity);
+            }
+            data[size++] = ordinal;
+            data[size++] = tf;
+            return grown;
+        }
+
+        int copyTo(int[] docs, int[] tfs, int p) {
+            for (int i = 0; i < size; i += 2) {
+                docs[p] = data[i];
+                tfs[p] = data[i + 1];
+                p++;
+            }
+            return p;
+        }
+    }
+
+    //sequential reader of one run, positioned on a term and its postings count
+    private static class RunReader implements Comparable<RunReader> {
+        private DataInputStream in;
+        private int index;
+        private int remaining;
+        String term;
+        int count;
+
+        RunReader(File run, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            this.index = index;
+            this.remaining = in.readInt();
+        }
+
+        //move to the next term, false at the end of the run
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            term = in.readUTF();
+            count = in.readInt();
+            return true;
+        }
+
+        int readPostings(int[] docs, int[] tfs, int p) throws IOException {
+            for (int i = 0; i < count; i++) {
+                docs[p] = in.readInt();
+                tfs[p] = in.readInt();
+                p++;
+            }
+            return p;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int c = term.compareTo(other.term);
+            return c != 0 ? c : Integer.compare(index, other.index);
+        }
+    }
+}
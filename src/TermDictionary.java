@@ -0,0 +1,339 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+//immutable sorted term dictionary, term -> (ID, document frequency, postings offset).
+//terms are front coded in blocks of BLOCK_SIZE: the first term of every block is stored in full,
+//the following ones as (length of prefix shared with the previous term, suffix).
+//the ID of a term is its rank in sorted order, so IDs can directly index per term arrays.
+public class TermDictionary {
+    private static final int BLOCK_SIZE = 16;
+
+    //number of terms in dictionary
+    private final int size;
+    //front coded term bytes
+    private final byte[] data;
+    //start of each block in data
+    private final int[] blockStart;
+    //first term of each block, kept decoded so binary search does not touch data
+    private final String[] blockFirst;
+    //document frequency of each term
+    private final int[] df;
+    //postings of term i are [postingsOffset[i], postingsOffset[i + 1]) in the postings arrays
+    private final int[] postingsOffset;
+
+    //terms must be sorted in natural String order and free of duplicates,
+    //postingsOffset has one more entry than terms
+    public TermDictionary(String[] terms, int[] df, int[] postingsOffset) {
+        this.size = terms.length;
+        this.df = df;
+        this.postingsOffset = postingsOffset;
+
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockStart = new int[blocks];
+        blockFirst = new String[blocks];
+
+        ByteWriter out = new ByteWriter();
+        for (int i = 0; i < size; i++) {
+            String term = terms[i];
+            int prefix = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockStart[i / BLOCK_SIZE] = out.size();
+                blockFirst[i / BLOCK_SIZE] = term;
+            } else {
+                prefix = commonPrefix(terms[i - 1], term);
+            }
+            byte[] suffix = term.substring(prefix).getBytes(StandardCharsets.UTF_8);
+            out.writeVInt(prefix);
+            out.writeVInt(suffix.length);
+            out.write(suffix);
+        }
+        data = out.toByteArray();
+    }
+
+    //the same terms and document frequencies over other postings arrays, postingsOffset has one more entry than terms
+    public TermDictionary withPostingsOffset(int[] postingsOffset) {
+        return new TermDictionary(this, postingsOffset);
+    }
+
+    private TermDictionary(TermDictionary other, int[] postingsOffset) {
+        this.size = other.size;
+        this.data = other.data;
+        this.blockStart = other.blockStart;
+        this.blockFirst = other.blockFirst;
+        this.df = other.df;
+        this.postingsOffset = postingsOffset;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //return the ID of term, or -1 if the term is not in dictionary
+    public int lookup(String term) {
+        int id = ceiling(term);
+        return id < size && termAt(id).equals(term) ? id : -1;
+    }
+
+    public int docFreq(int id) {
+        return df[id];
+    }
+
+    public int postingsStart(int id) {
+        return postingsOffset[id];
+    }
+
+    public int postingsEnd(int id) {
+        return postingsOffset[id + 1];
+    }
+
+    public String termAt(int id) {
+        int block = id / BLOCK_SIZE;
+        String term = null;
+        int[] pos = {blockStart[block]};
+        for (int i = block * BLOCK_SIZE; i <= id; i++) {
+            term = next(term, pos);
+        }
+        return term;
+    }
+
+    //IDs of the max terms starting with prefix with the highest document frequency, most frequent first
+    //and ties broken by lower ID, so a short prefix expands to the common terms rather than the first ones
+    public List<Integer> prefix(String prefix, int max) {
+        //candidates ordered worst first, so the head is the one to evict
+        PriorityQueue<long[]> best = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        int id = ceiling(prefix);
+        if (id < size) {
+            int block = id / BLOCK_SIZE;
+            String term = null;
+            int[] pos = {blockStart[block]};
+            for (int i = block * BLOCK_SIZE; i < size; i++) {
+                if (i % BLOCK_SIZE == 0) {
+                    pos[0] = blockStart[i / BLOCK_SIZE];
+                    term = null;
+                }
+                term = next(term, pos);
+                if (i < id) {
+                    continue;
+                }
+                if (!term.startsWith(prefix)) {
+                    break;
+                }
+                long key = ((long) (Integer.MAX_VALUE - df[i]) << 32) | i;
+                best.add(new long[] {key, i});
+                if (best.size() > max) {
+                    best.poll();
+                }
+            }
+        }
+
+        List<Integer> ret = new ArrayList<>();
+        while (!best.isEmpty()) {
+            ret.add((int) best.poll()[1]);
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    //IDs of the terms within maxEdits Levenshtein distance of term. Only the max closest terms are
+    //kept, ties broken by higher document frequency, so a misspelling expands to the common spellings.
+    //the sorted terms are walked like a Levenshtein automaton: one DP row per character, and since
+    //neighbouring terms share prefixes, the rows of the shared prefix are reused. Once every cell of
+    //a row exceeds maxEdits, all terms sharing that prefix are skipped, by a jump past them when they
+    //run beyond the current block.
+    public List<Integer> fuzzy(String term, int maxEdits, int max) {
+        int n = term.length();
+        //rows[j] is the DP row after consuming j characters of the current dictionary term
+        int[][] rows = new int[64][n + 1];
+        for (int i = 0; i <= n; i++) {
+            rows[0][i] = i;
+        }
+
+        //candidates ordered worst first, so the head is the one to evict
+        PriorityQueue<long[]> best = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+
+        String prev = "";
+        //length of the longest prefix of prev whose row is still within maxEdits
+        int alive = 0;
+        int[] pos = {0};
+        String cur = null;
+        for (int id = 0; id < size; id++) {
+            if (id % BLOCK_SIZE == 0) {
+                pos[0] = blockStart[id / BLOCK_SIZE];
+                cur = null;
+            }
+            cur = next(cur, pos);
+
+            int shared = commonPrefix(prev, cur);
+            prev = cur;
+            //every term that extends a dead prefix is dead as well
+            if (shared > alive) {
+                continue;
+            }
+            alive = advance(rows, term, cur, shared, maxEdits);
+            if (alive < cur.length()) {
+                String dead = cur.substring(0, alive + 1);
+                int next = id / BLOCK_SIZE + 1;
+                if (next < blockFirst.length && blockFirst[next].startsWith(dead)) {
+                    //resume at the start of the block holding the first term past the dead prefix,
+                    //the terms of that block before it still extend the dead prefix and are skipped
+                    id = ceiling(dead + '\uffff') / BLOCK_SIZE * BLOCK_SIZE - 1;
+                }
+                continue;
+            }
+            if (rows[cur.length()][n] <= maxEdits) {
+                //rank by distance, then by document frequency
+                long key = ((long) rows[cur.length()][n] << 32) | (Integer.MAX_VALUE - df[id]);
+                best.add(new long[] {key, id});
+                if (best.size() > max) {
+                    best.poll();
+                }
+            }
+        }
+
+        List<Integer> ret = new ArrayList<>();
+        while (!best.isEmpty()) {
+            ret.add((int) best.poll()[1]);
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    //fill DP rows shared+1.. for cur, return the length of the prefix of cur that can still match
+    private int advance(int[][] rows, String term, String cur, int shared, int maxEdits) {
+        int n = term.length();
+        for (int j = shared + 1; j <= cur.length(); j++) {
+            if (j >= rows.length) {
+                return j - 1;
+            }
+            int[] up = rows[j - 1];
+            int[] row = rows[j];
+            row[0] = j;
+            int min = row[0];
+            char c = cur.charAt(j - 1);
+            for (int i = 1; i <= n; i++) {
+                int cost = term.charAt(i - 1) == c ? 0 : 1;
+                row[i] = Math.min(Math.min(row[i - 1] + 1, up[i] + 1), up[i - 1] + cost);
+                min = Math.min(min, row[i]);
+            }
+            if (min > maxEdits) {
+                return j - 1;
+            }
+        }
+        return cur.length();
+    }
+
+    //index of the first term >= key
+    private int ceiling(String key) {
+        //find the last block whose first term <= key
+        int lo = 0, hi = blockFirst.length - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockFirst[mid].compareTo(key) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return 0;
+        }
+
+        String term = null;
+        int[] pos = {blockStart[block]};
+        int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+        for (int i = block * BLOCK_SIZE; i < end; i++) {
+            term = next(term, pos);
+            if (term.compareTo(key) >= 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    //decode the term following prev, pos[0] is the read position in data
+    private String next(String prev, int[] pos) {
+        int prefix = readVInt(pos);
+        int length = readVInt(pos);
+        String suffix = new String(data, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return prefix == 0 ? suffix : prev.substring(0, prefix) + suffix;
+    }
+
+    private int readVInt(int[] pos) {
+        int ret = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            ret |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ret;
+            }
+        }
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        //never split a surrogate pair, the suffix has to be valid UTF-16 to be encoded
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    //approximate heap footprint of the dictionary in bytes
+    public long sizeInBytes() {
+        long ret = 16 + 3 * 4;
+        ret += 16 + data.length;
+        ret += 16 + 4L * blockStart.length;
+        ret += 16 + 4L * blockFirst.length;
+        for (String s : blockFirst) {
+            ret += MemoryAccounting.stringBytes(s);
+        }
+        ret += 16 + 4L * df.length;
+        ret += 16 + 4L * postingsOffset.length;
+        return ret;
+    }
+
+    //minimal growable byte array used while encoding
+    private static class ByteWriter {
+        private byte[] buf = new byte[1024];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, size, b.length);
+            size += b.length;
+        }
+
+        void writeVInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+}
@@ -5,12 +5,9 @@ import java.io.*;
 public class Tokenizer {
     //store all stop words in a set
     private Set<String> stopWords; 
-    //instance od Porter stemmer
-    private Stemmer stemmer;   
 
     public Tokenizer(String stopWordsFile) {
         stopWords = new HashSet<>();
-        stemmer = new Stemmer();
 
         try(BufferedReader br = new BufferedReader(new FileReader(stopWordsFile))) {
             for(String stopWord; (stopWord = br.readLine()) != null; ) {
@@ -26,7 +23,9 @@ public class Tokenizer {
 
   
 
+    //thread safe, every call stems with its own Porter stemmer
     public List<String> getTokens(String text) {
+      Stemmer stemmer = new Stemmer();
       //convert to lower case
       text = text.toLowerCase();
       //remove url